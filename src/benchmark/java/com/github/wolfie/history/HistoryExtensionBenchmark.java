@@ -0,0 +1,126 @@
+package com.github.wolfie.history;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.wolfie.history.HistoryExtension.PopStateEvent;
+import com.github.wolfie.history.HistoryExtension.PopStateListener;
+import com.vaadin.shared.communication.ClientMethodInvocation;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+
+/**
+ * Measures the server-side cost of pushing states, and of receiving
+ * <code>popstate</code> events from the client.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryExtensionBenchmark {
+
+    /*
+     * Two alternating addresses, since HistoryExtension ignores events for
+     * the address it is already at.
+     */
+    private static final String[] URLS = {
+            BenchmarkSupport.CONTEXT_PATH + "/table/1",
+            BenchmarkSupport.CONTEXT_PATH + "/table/2" };
+
+    private HistoryExtension history;
+    private Map<String, String> stateMap;
+    private JsonObject stateJson;
+    private JsonArray[] popStateArguments;
+    private PopStateEvent lastEvent;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        history = new HistoryExtension();
+        history.extend(BenchmarkSupport.newUI(BenchmarkSupport.ORIGIN
+                + URLS[0]));
+        history.addPopStateListener(new PopStateListener() {
+            @Override
+            public void popState(final PopStateEvent event) {
+                lastEvent = event;
+            }
+        });
+
+        stateMap = new LinkedHashMap<String, String>();
+        stateMap.put("view", "table");
+        stateMap.put("id", "1");
+        stateMap.put("sort", "name");
+
+        stateJson = Json.createObject();
+        stateJson.put("view", "table");
+        stateJson.put("id", "1");
+        stateJson.put("sort", "name");
+
+        popStateArguments = new JsonArray[URLS.length];
+        for (int i = 0; i < URLS.length; i++) {
+            final JsonArray arguments = Json.createArray();
+            arguments.set(0, stateJson);
+            arguments.set(1, BenchmarkSupport.ORIGIN + URLS[i]);
+            popStateArguments[i] = arguments;
+        }
+    }
+
+    private int next() {
+        counter = (counter + 1) % URLS.length;
+        return counter;
+    }
+
+    @Benchmark
+    public List<ClientMethodInvocation> pushStateMap() {
+        history.pushState(stateMap, URLS[next()]);
+        return BenchmarkSupport.flush(history);
+    }
+
+    @Benchmark
+    public List<ClientMethodInvocation> pushStateJson() {
+        history.pushState(stateJson, URLS[next()]);
+        return BenchmarkSupport.flush(history);
+    }
+
+    @Benchmark
+    public PopStateEvent popState() {
+        history.onPopState(popStateArguments[next()]);
+        return lastEvent;
+    }
+
+    @Benchmark
+    public Map<String, String> popStateGetStateAsMap() {
+        history.onPopState(popStateArguments[next()]);
+        return lastEvent.getStateAsMap();
+    }
+
+    @Benchmark
+    public int popStateGetInt() {
+        history.onPopState(popStateArguments[next()]);
+        return lastEvent.getState().getInt("id", -1);
+    }
+
+    @Benchmark
+    public URI popStateGetAddress() {
+        history.onPopState(popStateArguments[next()]);
+        return lastEvent.getAddress();
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.wolfie.history;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.shared.communication.ClientMethodInvocation;
+import com.vaadin.ui.UI;
+
+/**
+ * Measures the path based {@link NavManager}: pushing a new navigation state,
+ * changing one query parameter, and parsing a state back from an address.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavManagerBenchmark {
+
+    private static final String[] STATES = { "table/1", "table/2" };
+    private static final String[] PAGES = { "1", "2" };
+
+    private HistoryExtension history;
+    private NavManager navManager;
+    private URI address;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        final UI ui = BenchmarkSupport.newUI(BenchmarkSupport.ORIGIN
+                + BenchmarkSupport.CONTEXT_PATH + "/" + STATES[0]
+                + "?sort=name&tags=red,blue&price=10~50");
+        history = new HistoryExtension();
+        history.extend(ui);
+        navManager = new NavManager(history, BenchmarkSupport.CONTEXT_PATH);
+        BenchmarkSupport.newNavigator(ui, navManager);
+
+        address = URI.create(BenchmarkSupport.ORIGIN
+                + BenchmarkSupport.CONTEXT_PATH + "/table/1?sort=name");
+    }
+
+    @Benchmark
+    public List<ClientMethodInvocation> setState() {
+        counter = (counter + 1) % STATES.length;
+        navManager.setState(STATES[counter]);
+        return BenchmarkSupport.flush(history);
+    }
+
+    @Benchmark
+    public List<ClientMethodInvocation> setParameter() {
+        counter = (counter + 1) % PAGES.length;
+        navManager.setParameter("page", PAGES[counter], false);
+        return BenchmarkSupport.flush(history);
+    }
+
+    @Benchmark
+    public String parseStateFrom() {
+        return navManager.parseStateFrom(address);
+    }
+}
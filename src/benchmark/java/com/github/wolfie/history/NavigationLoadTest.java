@@ -0,0 +1,294 @@
+package com.github.wolfie.history;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.wolfie.history.HistoryMetrics.Operation;
+import com.github.wolfie.history.StripedHistoryMetrics.Latencies;
+import com.vaadin.navigator.Navigator;
+import com.vaadin.navigator.View;
+import com.vaadin.navigator.ViewChangeListener.ViewChangeEvent;
+import com.vaadin.ui.CssLayout;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.VerticalLayout;
+
+/**
+ * Simulates many concurrent users navigating in their own UIs, and reports
+ * how much one JVM can take: navigations per second, their latency, the heap
+ * used per session and the time spent in garbage collection.
+ * <p>
+ * Each simulated UI has a {@link HistoryExtension} and a {@link Navigator} set
+ * up like {@link HistoryExtension#configurePushStateEnabledNavigator}, and a
+ * {@link FakeBrowser} that clicks its {@link PushStateLink}s, lets the server
+ * navigate, and goes back and forward. A user's actions never overlap, like
+ * the requests of a session, but all the users share one thread pool. The
+ * latency of an action covers the whole round-trip, until the browser's
+ * history is up to date.
+ * <p>
+ * Run with <code>mvn -Pbenchmark test-compile exec:exec@load-test</code>, and
+ * tune with the properties of the <code>benchmark</code> profile:
+ * <code>-Dloadtest.sessions=5000 -Dloadtest.threads=virtual</code>. The
+ * amount of threads is either a number, <code>0</code> for two per processor,
+ * or <code>virtual</code> for a virtual thread per action, on runtimes that
+ * have them.
+ */
+public class NavigationLoadTest {
+
+    private static final int LINKS = 8;
+
+    /**
+     * A view with a bit of content, so that the heap per session is somewhat
+     * realistic.
+     */
+    @SuppressWarnings("serial")
+    public static class TableView extends VerticalLayout implements View {
+        private final Label label = new Label();
+
+        public TableView() {
+            addComponent(new Label("Table"));
+            addComponent(label);
+        }
+
+        @Override
+        public void enter(final ViewChangeEvent event) {
+            label.setValue("Row " + event.getParameters());
+        }
+    }
+
+    /**
+     * A simulated user with a UI of its own. Runs one action at a time, and
+     * schedules the next one until the test is over.
+     */
+    private final class User implements Runnable {
+        private final Navigator navigator;
+        private final PushStateLink[] links = new PushStateLink[LINKS];
+        private final FakeBrowser browser;
+
+        private User() {
+            final UI ui = BenchmarkSupport.newUI(BenchmarkSupport.ORIGIN
+                    + "/table/0");
+            final HistoryExtension history = new HistoryExtension();
+            history.extend(ui);
+            history.setPopStateCoalesceWindow(0);
+
+            final VerticalLayout layout = new VerticalLayout();
+            for (int i = 0; i < LINKS; i++) {
+                links[i] = new PushStateLink("Table " + i, "table/" + i);
+                layout.addComponent(links[i]);
+            }
+            final CssLayout content = new CssLayout();
+            layout.addComponent(content);
+            ui.setContent(layout);
+
+            // links use the root context when there is no servlet
+            navigator = new Navigator(ui,
+                    history.createNavigationStateManager(""),
+                    new Navigator.ComponentContainerViewDisplay(content));
+            navigator.addView("table", TableView.class);
+
+            browser = new FakeBrowser(history, ui.getPage().getLocation()
+                    .toString());
+            navigator.navigateTo(navigator.getState());
+            browser.sync();
+        }
+
+        @Override
+        public void run() {
+            if (System.nanoTime() - deadline >= 0) {
+                done.countDown();
+                return;
+            }
+            try {
+                act();
+                executor.execute(this);
+            } catch (final Throwable t) {
+                failure.compareAndSet(null, t);
+                done.countDown();
+            }
+        }
+
+        /**
+         * 45% link clicks, 15% server side navigations, 25% back and 15%
+         * forward. A back or forward at the end of the history does nothing,
+         * so it isn't counted.
+         */
+        private void act() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final int action = random.nextInt(100);
+            final long start = System.nanoTime();
+            final boolean roundTrip;
+            if (action < 45) {
+                browser.click(links[random.nextInt(LINKS)]);
+                roundTrip = true;
+            } else if (action < 60) {
+                navigator.navigateTo("table/" + random.nextInt(1000));
+                browser.sync();
+                roundTrip = true;
+            } else if (action < 85) {
+                roundTrip = browser.back();
+            } else {
+                roundTrip = browser.forward();
+            }
+            if (roundTrip) {
+                latencies.get().navigationTime(null, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private final int sessions;
+    private final String threads;
+    private final int warmupSeconds;
+    private final int seconds;
+
+    private final StripedHistoryMetrics operations = new StripedHistoryMetrics();
+    private final AtomicReference<StripedHistoryMetrics> latencies = new AtomicReference<StripedHistoryMetrics>(
+            new StripedHistoryMetrics());
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private ExecutorService executor;
+    private String executorDescription;
+    private volatile long deadline;
+    private CountDownLatch done;
+
+    private NavigationLoadTest(final int sessions, final String threads,
+            final int warmupSeconds, final int seconds) {
+        this.sessions = sessions;
+        this.threads = threads;
+        this.warmupSeconds = warmupSeconds;
+        this.seconds = seconds;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final NavigationLoadTest test = new NavigationLoadTest(
+                Integer.getInteger("loadtest.sessions", 2000),
+                System.getProperty("loadtest.threads", "0"),
+                Integer.getInteger("loadtest.warmup", 10),
+                Integer.getInteger("loadtest.seconds", 30));
+        test.run();
+    }
+
+    private void run() throws Exception {
+        HistoryExtension.setDefaultMetrics(operations);
+        executor = createExecutor();
+
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final long heapBefore = usedHeap(memory);
+        final User[] users = new User[sessions];
+        for (int i = 0; i < sessions; i++) {
+            users[i] = new User();
+        }
+        final long heapPerSession = (usedHeap(memory) - heapBefore) / sessions;
+        print("%d sessions on %s, %d bytes of heap per session", sessions,
+                executorDescription, heapPerSession);
+
+        runFor(users, warmupSeconds);
+        if (failure.get() == null) {
+            latencies.set(new StripedHistoryMetrics());
+            final long pushes = operations.getCount(Operation.PUSH_STATE);
+            final long pops = operations.getCount(Operation.POP_STATE);
+            final long[] gcBefore = gcTotals();
+            final long start = System.nanoTime();
+
+            runFor(users, seconds);
+
+            final double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+            final long[] gc = gcTotals();
+            report(elapsedSeconds,
+                    operations.getCount(Operation.PUSH_STATE) - pushes,
+                    operations.getCount(Operation.POP_STATE) - pops,
+                    gc[0] - gcBefore[0], gc[1] - gcBefore[1]);
+        }
+
+        executor.shutdown();
+        HistoryExtension.setDefaultMetrics(null);
+        if (failure.get() != null) {
+            throw new IllegalStateException("A simulated user failed",
+                    failure.get());
+        }
+    }
+
+    private void runFor(final User[] users, final int runSeconds)
+            throws InterruptedException {
+        done = new CountDownLatch(users.length);
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(runSeconds);
+        for (final User user : users) {
+            executor.execute(user);
+        }
+        done.await();
+    }
+
+    private void report(final double elapsedSeconds, final long pushes,
+            final long pops, final long gcCount, final long gcMillis) {
+        final Latencies times = latencies.get().getNavigationTimes();
+        print("%.0f navigations/s (%d actions in %.1f s, %d pushState, %d popstate)",
+                times.getCount() / elapsedSeconds, times.getCount(),
+                elapsedSeconds, pushes, pops);
+        print("latency mean %.3f ms, p50 < %.3f ms, p99 < %.3f ms, p99.9 < %.3f ms",
+                times.getMeanNanos() / 1e6,
+                times.getPercentileNanos(50) / 1e6,
+                times.getPercentileNanos(99) / 1e6,
+                times.getPercentileNanos(99.9) / 1e6);
+        print("gc %d collections, %d ms (%.1f%% of the time)", gcCount,
+                gcMillis, gcMillis / 10.0 / elapsedSeconds);
+    }
+
+    private ExecutorService createExecutor() {
+        if ("virtual".equals(threads)) {
+            executorDescription = "virtual threads";
+            try {
+                // Java 21, without requiring it to build
+                return (ExecutorService) Executors.class.getMethod(
+                        "newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (final ReflectiveOperationException e) {
+                throw new IllegalStateException(
+                        "Virtual threads are not supported by this runtime", e);
+            }
+        }
+        int count = Integer.parseInt(threads);
+        if (count <= 0) {
+            count = Runtime.getRuntime().availableProcessors() * 2;
+        }
+        executorDescription = count + " threads";
+        return Executors.newFixedThreadPool(count);
+    }
+
+    /**
+     * @return the heap in use after a few rounds of garbage collection
+     */
+    private static long usedHeap(final MemoryMXBean memory)
+            throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return the total amount of collections and milliseconds spent in them
+     */
+    private static long[] gcTotals() {
+        final List<GarbageCollectorMXBean> collectors = ManagementFactory
+                .getGarbageCollectorMXBeans();
+        final long[] totals = new long[2];
+        for (final GarbageCollectorMXBean collector : collectors) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    private static void print(final String format, final Object... args) {
+        System.out.println(String.format(Locale.ROOT, format, args));
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.wolfie.history;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.navigator.Navigator;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.VerticalLayout;
+
+/**
+ * Measures whole navigations, from the user's action to the browser's history
+ * being up to date, against a {@link FakeBrowser}: clicking a
+ * {@link PushStateLink}, and going back and forth in the history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    @Param({ "navManager", "uriFragmentNavManager" })
+    public String stateManager;
+
+    @Param({ "false", "true" })
+    public boolean optimistic;
+
+    private FakeBrowser browser;
+    private PushStateLink[] links;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        // links use the root context when there is no servlet
+        final UI ui = BenchmarkSupport.newUI(BenchmarkSupport.ORIGIN
+                + "/table/0");
+        final HistoryExtension history = new HistoryExtension();
+        history.extend(ui);
+        history.setOptimisticNavigation(optimistic);
+        history.setPopStateCoalesceWindow(0);
+        if ("navManager".equals(stateManager)) {
+            BenchmarkSupport.newNavigator(ui,
+                    history.createNavigationStateManager(""));
+        } else {
+            BenchmarkSupport.newNavigator(ui, new UriFragmentNavManager(
+                    history));
+        }
+
+        final VerticalLayout layout = new VerticalLayout();
+        links = new PushStateLink[4];
+        for (int i = 0; i < links.length; i++) {
+            links[i] = new PushStateLink("Table " + i, "table/" + i);
+            layout.addComponent(links[i]);
+        }
+        ui.setContent(layout);
+
+        browser = new FakeBrowser(history, ui.getPage().getLocation()
+                .toString());
+        browser.sync();
+    }
+
+    @Benchmark
+    public String click() {
+        counter = (counter + 1) % links.length;
+        browser.click(links[counter]);
+        return browser.getLocation();
+    }
+
+    @Benchmark
+    public String backAndForward() {
+        if (browser.getIndex() == 0) {
+            browser.click(links[1]);
+        }
+        browser.back();
+        browser.forward();
+        return browser.getLocation();
+    }
+}
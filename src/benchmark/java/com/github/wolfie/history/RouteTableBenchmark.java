@@ -0,0 +1,49 @@
+package com.github.wolfie.history;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checks that resolving a navigation state through a {@link RouteTable} costs
+ * the same, no matter how many routes there are.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteTableBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int routeCount;
+
+    private RouteTable routes;
+    private String state;
+
+    @Setup
+    public void setUp() {
+        routes = new RouteTable();
+        for (int i = 0; i < routeCount; i++) {
+            routes.addRoute("section" + i + "/{id:int}");
+            routes.addRoute("section" + i + "/{id:int}/edit");
+        }
+        state = "section" + routeCount / 2 + "/1234/edit";
+    }
+
+    @Benchmark
+    public RouteMatch resolve() {
+        return routes.resolve(state);
+    }
+}
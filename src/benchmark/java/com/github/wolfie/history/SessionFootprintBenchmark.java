@@ -0,0 +1,63 @@
+package com.github.wolfie.history;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.ui.UI;
+
+/**
+ * Measures what the add-on costs in a replicated session: the time it takes
+ * to serialize a UI that uses it, and the serialized bytes it adds to the UI.
+ * The sizes are printed once per trial, so that growth in the session
+ * footprint shows up next to the timings. {@link SessionFootprintTest} fails
+ * the build if they grow too much.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionFootprintBenchmark {
+
+    private static final String LOCATION = BenchmarkSupport.ORIGIN
+            + BenchmarkSupport.CONTEXT_PATH + "/table/1";
+
+    @Param({ "extension", "navManager", "uriFragmentNavManager" })
+    public String setup;
+
+    private UI ui;
+    private int bareSize;
+
+    @Setup
+    public void setUp() throws IOException {
+        bareSize = BenchmarkSupport.serialize(BenchmarkSupport.newNavigatedUI(
+                LOCATION, "bare")).length;
+        ui = BenchmarkSupport.newNavigatedUI(LOCATION, setup);
+    }
+
+    @TearDown
+    public void printFootprint() throws IOException {
+        final int size = BenchmarkSupport.serialize(ui).length;
+        System.out.println(setup + ": " + size + " bytes per UI, "
+                + (size - bareSize) + " more than without the add-on");
+    }
+
+    @Benchmark
+    public byte[] serializeUI() throws IOException {
+        return BenchmarkSupport.serialize(ui);
+    }
+}
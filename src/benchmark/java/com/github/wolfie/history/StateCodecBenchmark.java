@@ -0,0 +1,82 @@
+package com.github.wolfie.history;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+
+/**
+ * Compares the {@link StateCodec StateCodecs}: the time it takes to encode and
+ * decode a typical state, and the size of the encoded state on the wire. The
+ * sizes are printed once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateCodecBenchmark {
+
+    private static final String[] KEYS = { "view", "id", "sort", "ascending",
+            "page", "filters" };
+
+    @Param({ "json", "compact" })
+    public String codecName;
+
+    private StateCodec codec;
+    private JsonObject state;
+    private JsonValue encoded;
+
+    @Setup
+    public void setUp() {
+        codec = "compact".equals(codecName) ? new CompactStateCodec(KEYS)
+                : new JsonStateCodec();
+
+        state = Json.createObject();
+        state.put("view", "table");
+        state.put("id", 1234);
+        state.put("sort", "lastName");
+        state.put("ascending", true);
+        state.put("page", 3);
+        final JsonArray filters = Json.createArray();
+        filters.set(0, "active");
+        filters.set(1, "premium");
+        state.put("filters", filters);
+
+        encoded = codec.encode(state);
+    }
+
+    @TearDown
+    public void printPayloadSize() {
+        // what actually travels in the RPC, both ways
+        System.out.println(codecName + " payload: " + encoded.toJson().length()
+                + " characters (" + state.toJson().length()
+                + " as plain JSON)");
+    }
+
+    @Benchmark
+    public JsonValue encode() {
+        return codec.encode(state);
+    }
+
+    @Benchmark
+    public JsonObject decode() {
+        return codec.decode(encoded);
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.wolfie.history;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.shared.communication.ClientMethodInvocation;
+import com.vaadin.ui.UI;
+
+/**
+ * Measures fragment based navigation through {@link UriFragmentNavManager}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UriFragmentNavManagerBenchmark {
+
+    private static final String[] FRAGMENTS = { "!table/1", "!table/2" };
+
+    private HistoryExtension history;
+    private UriFragmentNavManager navManager;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        final UI ui = BenchmarkSupport.newUI(BenchmarkSupport.ORIGIN
+                + BenchmarkSupport.CONTEXT_PATH + "/?sort=name#"
+                + FRAGMENTS[0]);
+        history = new HistoryExtension();
+        history.extend(ui);
+        navManager = new UriFragmentNavManager(history);
+        BenchmarkSupport.newNavigator(ui, navManager);
+    }
+
+    @Benchmark
+    public List<ClientMethodInvocation> setFragment() {
+        counter = (counter + 1) % FRAGMENTS.length;
+        navManager.setFragment(FRAGMENTS[counter]);
+        return BenchmarkSupport.flush(history);
+    }
+}
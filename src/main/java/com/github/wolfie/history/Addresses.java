@@ -0,0 +1,197 @@
+package com.github.wolfie.history;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Helpers for parsing and building browser addresses.
+ * <p>
+ * Parsed addresses are kept in a cache that is shared by all UIs, since most
+ * applications navigate among a fairly small set of URLs. {@link URI URIs} are
+ * immutable, so sharing them is safe.
+ */
+final class Addresses {
+
+    /**
+     * The maximum amount of cached addresses. When the cache is full, it is
+     * simply emptied: the hot addresses are back after a few navigations.
+     */
+    private static final int MAX_CACHED_ADDRESSES = 2048;
+
+    private static final ConcurrentMap<String, URI> CACHE = new ConcurrentHashMap<String, URI>(
+            256);
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private Addresses() {
+    }
+
+    /**
+     * Parses an address, or returns the cached result of an earlier parse.
+     *
+     * @param address the address to parse
+     * @return the address as a URI
+     * @throws URISyntaxException if the address is malformed
+     */
+    static URI parse(final String address) throws URISyntaxException {
+        URI uri = CACHE.get(address);
+        if (uri == null) {
+            uri = new URI(address);
+            if (CACHE.size() >= MAX_CACHED_ADDRESSES) {
+                CACHE.clear();
+            }
+            CACHE.put(address, uri);
+        }
+        return uri;
+    }
+
+    /**
+     * Reduces an address to the part that identifies a history entry within
+     * the application: the path, query and fragment. This makes absolute
+     * addresses (as reported by the browser) comparable to absolute paths (as
+     * usually given to <code>pushState</code>).
+     *
+     * @param address an absolute address or an absolute path
+     * @return the address without its scheme and authority
+     */
+    static String normalize(final String address) {
+        if (address.startsWith("/") && !address.startsWith("//")) {
+            return address;
+        }
+
+        final int scheme = address.indexOf("://");
+        if (scheme < 0) {
+            // a relative address, can't do better without resolving it
+            return address;
+        }
+        final int authorityStart = scheme + 3;
+        for (int i = authorityStart; i < address.length(); i++) {
+            final char c = address.charAt(i);
+            if (c == '/') {
+                return address.substring(i);
+            } else if (c == '?' || c == '#') {
+                return "/" + address.substring(i);
+            }
+        }
+        return "/";
+    }
+
+    /**
+     * Compares two {@link #normalize(String) normalized} addresses, allowing
+     * for differences in percent-encoding, e.g. a browser reports
+     * <code>"/caf%C3%A9"</code> for a pushed <code>"/caf&eacute;"</code>.
+     *
+     * @param a a normalized address
+     * @param b another normalized address, may be <code>null</code>
+     * @return <code>true</code> if the addresses point to the same entry
+     */
+    static boolean sameEntry(final String a, final String b) {
+        if (a.equals(b)) {
+            return true;
+        } else if (b == null || a.indexOf('%') < 0 && b.indexOf('%') < 0) {
+            // nothing to decode, the common case
+            return false;
+        }
+        try {
+            final URI uriA = parse(a);
+            final URI uriB = parse(b);
+            return equal(uriA.getPath(), uriB.getPath())
+                    && equal(uriA.getQuery(), uriB.getQuery())
+                    && equal(uriA.getFragment(), uriB.getFragment());
+        } catch (final URISyntaxException e) {
+            return false;
+        }
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns everything in an address up to its fragment, i.e. the constant
+     * part when only the fragment changes.
+     *
+     * @param uri the address
+     * @return the address without <code>#</code> and the fragment
+     */
+    static String withoutFragment(final URI uri) {
+        final String address = uri.toString();
+        final int hash = address.indexOf('#');
+        return hash < 0 ? address : address.substring(0, hash);
+    }
+
+    /**
+     * Returns the address that the page is really showing when the history
+     * API is emulated with the fragment, e.g.
+     * <code>"http://host/app/#!/app/table/1"</code> is showing
+     * <code>"http://host/app/table/1"</code>.
+     *
+     * @param uri the address of the page
+     * @return the emulated address, or <code>uri</code> if there is none
+     * @see HistoryExtension#setFragmentFallback(boolean)
+     */
+    static URI withoutFallbackFragment(final URI uri) {
+        final String fragment = uri.getRawFragment();
+        if (fragment == null || !fragment.startsWith("!/")
+                || fragment.startsWith("!//")) {
+            return uri;
+        }
+        try {
+            return parse(uri.getScheme() + "://" + uri.getRawAuthority()
+                    + fragment.substring(1));
+        } catch (final URISyntaxException e) {
+            return uri;
+        }
+    }
+
+    /**
+     * Appends a fragment to an address, quoting the characters that aren't
+     * allowed in a fragment, like the multi-argument {@link URI} constructors
+     * do.
+     *
+     * @param prefix the address without a fragment, as returned by
+     * {@link #withoutFragment(URI)}
+     * @param fragment the unquoted fragment, or <code>null</code> for none
+     * @return the full address
+     */
+    static String withFragment(final String prefix, final String fragment) {
+        if (fragment == null) {
+            return prefix;
+        }
+        final StringBuilder sb = new StringBuilder(prefix.length()
+                + fragment.length() + 8);
+        sb.append(prefix).append('#');
+        for (int i = 0; i < fragment.length(); i++) {
+            final char c = fragment.charAt(i);
+            if (isLegalInFragment(c)) {
+                sb.append(c);
+            } else {
+                for (final byte b : String.valueOf(c).getBytes(
+                        StandardCharsets.UTF_8)) {
+                    sb.append('%').append(HEX[b >> 4 & 0xF])
+                            .append(HEX[b & 0xF]);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Unreserved and reserved characters are allowed as-is, as are non-ASCII
+     * characters that aren't controls or spaces. <code>%</code> is always
+     * quoted, like {@link URI} does.
+     */
+    private static boolean isLegalInFragment(final char c) {
+        if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0'
+                && c <= '9') {
+            return true;
+        } else if (c < 128) {
+            return "_-!.~'()*;/?:@&=+$,[]".indexOf(c) >= 0;
+        } else {
+            return !Character.isISOControl(c) && !Character.isSpaceChar(c);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.github.wolfie.history;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.vaadin.navigator.Navigator;
+import com.vaadin.navigator.View;
+import com.vaadin.navigator.ViewChangeListener;
+import com.vaadin.navigator.ViewProvider;
+
+/**
+ * A {@link ViewProvider} that keeps the views that were navigated away from,
+ * and shows them again when the browser goes back or forward to them, instead
+ * of building them from scratch.
+ * <p>
+ * The views are cached by their full navigation state, e.g.
+ * <code>"table/5"</code>. A cached view is only used when the navigation
+ * comes from the browser's history, as told by
+ * {@link HistoryExtension#isPopStateInProgress()}. Other navigations always
+ * go to the delegate, and replace the cached view. Views can opt out of the
+ * cache, refresh their data when they are restored, and report their size
+ * by implementing {@link CacheableView}.
+ * <p>
+ * The cache belongs to a single UI. It is bounded by the amount of views, and
+ * optionally by their {@link CacheableView#getEstimatedSize() estimated
+ * size}. The least recently used views are evicted first.
+ *
+ * <pre>
+ * BackForwardCacheViewProvider cache = new BackForwardCacheViewProvider(
+ *         history, new RouteViewProvider(ROUTES));
+ * cache.install(navigator);
+ * </pre>
+ */
+@SuppressWarnings("serial")
+public class BackForwardCacheViewProvider implements ViewProvider,
+        ViewChangeListener {
+
+    public static final int DEFAULT_MAX_VIEWS = 10;
+
+    private static class CachedView implements Serializable {
+        private final View view;
+        private final long size;
+
+        private CachedView(final View view, final long size) {
+            this.view = view;
+            this.size = size;
+        }
+    }
+
+    private final HistoryExtension history;
+    private final ViewProvider delegate;
+    private final int maxViews;
+    private final long maxTotalSize;
+
+    /** in access order, least recently used first */
+    private final LinkedHashMap<String, CachedView> cache = new LinkedHashMap<String, CachedView>(
+            16, 0.75f, true);
+    private long totalSize = 0;
+
+    /** the latest state given to {@link #getViewName(String)} */
+    private String resolvingState;
+    private View currentView;
+    private String currentState;
+
+    /**
+     * Creates a provider that caches up to {@value #DEFAULT_MAX_VIEWS} views,
+     * without a memory budget.
+     *
+     * @param history the history extension of the UI
+     * @param delegate the provider that actually builds the views
+     */
+    public BackForwardCacheViewProvider(final HistoryExtension history,
+            final ViewProvider delegate) {
+        this(history, delegate, DEFAULT_MAX_VIEWS, 0);
+    }
+
+    /**
+     * Creates a provider.
+     *
+     * @param history the history extension of the UI
+     * @param delegate the provider that actually builds the views
+     * @param maxViews the maximum amount of cached views
+     * @param maxTotalSize the maximum total estimated size of the cached
+     * views, in bytes, or <code>0</code> for no limit
+     * @throws IllegalArgumentException if <code>history</code> or
+     * <code>delegate</code> is <code>null</code>, <code>maxViews</code> is
+     * less than 1 or <code>maxTotalSize</code> is negative
+     */
+    public BackForwardCacheViewProvider(final HistoryExtension history,
+            final ViewProvider delegate, final int maxViews,
+            final long maxTotalSize) throws IllegalArgumentException {
+        if (history == null) {
+            throw new IllegalArgumentException("history may not be null");
+        }
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate may not be null");
+        }
+        if (maxViews < 1) {
+            throw new IllegalArgumentException("maxViews must be positive");
+        }
+        if (maxTotalSize < 0) {
+            throw new IllegalArgumentException(
+                    "maxTotalSize may not be negative");
+        }
+        this.history = history;
+        this.delegate = delegate;
+        this.maxViews = maxViews;
+        this.maxTotalSize = maxTotalSize;
+    }
+
+    /**
+     * Adds this provider to a navigator, both as a provider and as the view
+     * change listener that tells it which views are navigated away from.
+     *
+     * @param navigator the navigator of the UI
+     */
+    public void install(final Navigator navigator) {
+        navigator.addProvider(this);
+        navigator.addViewChangeListener(this);
+    }
+
+    @Override
+    public String getViewName(final String viewAndParameters) {
+        resolvingState = viewAndParameters;
+        return delegate.getViewName(viewAndParameters);
+    }
+
+    @Override
+    public View getView(final String viewName) {
+        if (history.isPopStateInProgress() && resolvingState != null) {
+            final CachedView cached = remove(resolvingState);
+            if (cached != null) {
+                if (cached.view instanceof CacheableView) {
+                    ((CacheableView) cached.view).restoredFromCache();
+                }
+                return cached.view;
+            }
+        }
+        return delegate.getView(viewName);
+    }
+
+    @Override
+    public boolean beforeViewChange(final ViewChangeEvent event) {
+        return true;
+    }
+
+    @Override
+    public void afterViewChange(final ViewChangeEvent event) {
+        final View oldView = event.getOldView();
+        if (oldView != null && oldView == currentView
+                && oldView != event.getNewView() && currentState != null) {
+            cache(currentState, oldView);
+        }
+
+        currentView = event.getNewView();
+        final String parameters = event.getParameters();
+        currentState = parameters == null || parameters.isEmpty() ? event
+                .getViewName() : event.getViewName() + "/" + parameters;
+        // the view is showing now, so it can't be restored from the cache
+        remove(currentState);
+    }
+
+    /**
+     * Drops all cached views.
+     */
+    public void clear() {
+        cache.clear();
+        totalSize = 0;
+    }
+
+    /**
+     * @return the amount of cached views
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    private void cache(final String state, final View view) {
+        long size = 0;
+        if (view instanceof CacheableView) {
+            final CacheableView cacheable = (CacheableView) view;
+            if (!cacheable.isCacheable()) {
+                return;
+            }
+            size = Math.max(0, cacheable.getEstimatedSize());
+            if (maxTotalSize != 0 && size > maxTotalSize) {
+                return;
+            }
+        }
+
+        remove(state);
+        cache.put(state, new CachedView(view, size));
+        totalSize += size;
+
+        final Iterator<CachedView> i = cache.values().iterator();
+        while (cache.size() > maxViews || maxTotalSize != 0
+                && totalSize > maxTotalSize) {
+            totalSize -= i.next().size;
+            i.remove();
+        }
+    }
+
+    private CachedView remove(final String state) {
+        final CachedView cached = cache.remove(state);
+        if (cached != null) {
+            totalSize -= cached.size;
+        }
+        return cached;
+    }
+}
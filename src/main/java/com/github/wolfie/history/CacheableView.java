@@ -0,0 +1,35 @@
+package com.github.wolfie.history;
+
+import com.vaadin.navigator.View;
+
+/**
+ * A {@link View} that controls how a {@link BackForwardCacheViewProvider}
+ * caches it.
+ * <p>
+ * Views that don't implement this interface are always cached, and don't
+ * count towards the memory budget of the cache.
+ */
+public interface CacheableView extends View {
+
+    /**
+     * Called when the view is navigated away from.
+     *
+     * @return <code>true</code> if the view may be cached, <code>false</code>
+     * if it should be built again the next time it is needed
+     */
+    boolean isCacheable();
+
+    /**
+     * Called when the view is taken from the cache because the browser went
+     * back or forward to it, before {@link #enter(com.vaadin.navigator.ViewChangeListener.ViewChangeEvent)
+     * enter} is called. The view can refresh any data that may have become
+     * stale here.
+     */
+    void restoredFromCache();
+
+    /**
+     * @return a rough estimate of the memory that the view takes, in bytes.
+     * It is counted towards the memory budget of the cache.
+     */
+    long getEstimatedSize();
+}
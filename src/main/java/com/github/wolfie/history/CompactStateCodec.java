@@ -0,0 +1,370 @@
+package com.github.wolfie.history;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonString;
+import elemental.json.JsonValue;
+
+/**
+ * A {@link StateCodec} that sends state objects to the browser as short,
+ * URL-safe strings instead of JSON.
+ * <p>
+ * The state is written in a binary form, and then encoded with base64url.
+ * Keys that are given in the key dictionary are written as a single index
+ * byte, integral numbers are written as variable length integers and strings
+ * as length-prefixed UTF-8.
+ * <p>
+ * States come back from the browser, so decoding doesn't trust them: a state
+ * that is malformed, or nested deeper than {@value #MAX_DEPTH} levels of
+ * objects and arrays, is decoded as <code>null</code>.
+ * <p>
+ * <em>Note:</em> Entries are decoded with the dictionary that the codec has at
+ * the time. Keys may be appended to the dictionary between releases, but
+ * existing keys should not be removed or reordered, since browsers may still
+ * have history entries that were written with the old dictionary.
+ */
+@SuppressWarnings("serial")
+public class CompactStateCodec implements StateCodec {
+
+    /** Marks a state string as produced by this codec */
+    private static final char PREFIX = '~';
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_FALSE = 1;
+    private static final int TYPE_TRUE = 2;
+    private static final int TYPE_INTEGER = 3;
+    private static final int TYPE_DOUBLE = 4;
+    private static final int TYPE_STRING = 5;
+    private static final int TYPE_OBJECT = 6;
+    private static final int TYPE_ARRAY = 7;
+
+    /**
+     * The deepest nesting of objects and arrays that is decoded, the state
+     * itself included. Keeps a crafted state from exhausting the stack.
+     */
+    static final int MAX_DEPTH = 64;
+
+    /** The largest integer a JavaScript number can hold without losing data */
+    private static final double MAX_SAFE_INTEGER = 9007199254740991d;
+
+    private static final char[] BASE64URL = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz0123456789-_").toCharArray();
+    private static final int[] BASE64URL_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64URL_VALUES, -1);
+        for (int i = 0; i < BASE64URL.length; i++) {
+            BASE64URL_VALUES[BASE64URL[i]] = i;
+        }
+    }
+
+    private final String[] dictionary;
+    private final Map<String, Integer> keyIndexes = new HashMap<String, Integer>();
+
+    /**
+     * Creates a new compact codec.
+     *
+     * @param keyDictionary the keys that are expected to appear in state
+     * objects. These are written as indexes instead of strings.
+     * @throws IllegalArgumentException if the dictionary contains
+     * <code>null</code> or duplicate keys
+     */
+    public CompactStateCodec(final String... keyDictionary)
+            throws IllegalArgumentException {
+        dictionary = keyDictionary.clone();
+        for (int i = 0; i < dictionary.length; i++) {
+            if (dictionary[i] == null) {
+                throw new IllegalArgumentException(
+                        "keyDictionary may not contain null");
+            }
+            if (keyIndexes.put(dictionary[i], Integer.valueOf(i)) != null) {
+                throw new IllegalArgumentException("Duplicate key "
+                        + dictionary[i] + " in keyDictionary");
+            }
+        }
+    }
+
+    @Override
+    public JsonValue encode(final JsonObject state) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeObject(out, state);
+        return Json.create(PREFIX + toBase64Url(out.toByteArray()));
+    }
+
+    @Override
+    public JsonObject decode(final JsonValue encoded) {
+        if (!(encoded instanceof JsonString)) {
+            return null;
+        }
+        final String string = encoded.asString();
+        if (string.isEmpty() || string.charAt(0) != PREFIX) {
+            return null;
+        }
+
+        try {
+            final Input in = new Input(fromBase64Url(string, 1));
+            final JsonObject state = readObject(in, 1);
+            return in.position == in.bytes.length ? state : null;
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void writeObject(final ByteArrayOutputStream out,
+            final JsonObject object) {
+        final String[] keys = object.keys();
+        writeVarint(out, keys.length);
+        for (final String key : keys) {
+            final Integer index = keyIndexes.get(key);
+            if (index != null) {
+                writeVarint(out, index.intValue() + 1);
+            } else {
+                writeVarint(out, 0);
+                writeString(out, key);
+            }
+            writeValue(out, object.get(key));
+        }
+    }
+
+    private void writeValue(final ByteArrayOutputStream out,
+            final JsonValue value) {
+        if (value == null) {
+            out.write(TYPE_NULL);
+            return;
+        }
+
+        switch (value.getType()) {
+        case NULL:
+            out.write(TYPE_NULL);
+            break;
+        case BOOLEAN:
+            out.write(value.asBoolean() ? TYPE_TRUE : TYPE_FALSE);
+            break;
+        case NUMBER:
+            writeNumber(out, value.asNumber());
+            break;
+        case STRING:
+            out.write(TYPE_STRING);
+            writeString(out, value.asString());
+            break;
+        case OBJECT:
+            out.write(TYPE_OBJECT);
+            writeObject(out, (JsonObject) value);
+            break;
+        case ARRAY:
+            final JsonArray array = (JsonArray) value;
+            out.write(TYPE_ARRAY);
+            writeVarint(out, array.length());
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(out, array.get(i));
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported JSON type "
+                    + value.getType());
+        }
+    }
+
+    private static void writeNumber(final ByteArrayOutputStream out,
+            final double number) {
+        final boolean negativeZero = number == 0
+                && Double.doubleToRawLongBits(number) != 0;
+        if (number == Math.rint(number) && Math.abs(number) <= MAX_SAFE_INTEGER
+                && !negativeZero) {
+            final long integer = (long) number;
+            out.write(TYPE_INTEGER);
+            // zig-zag, so that small negative numbers stay short too
+            writeVarint(out, (integer << 1) ^ (integer >> 63));
+        } else {
+            out.write(TYPE_DOUBLE);
+            final long bits = Double.doubleToRawLongBits(number);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift));
+            }
+        }
+    }
+
+    private static void writeString(final ByteArrayOutputStream out,
+            final String string) {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out,
+            final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private static class Input {
+        private final byte[] bytes;
+        private int position = 0;
+
+        private Input(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private int read() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Truncated state");
+            }
+            return bytes[position++] & 0xFF;
+        }
+    }
+
+    private JsonObject readObject(final Input in, final int depth) {
+        checkDepth(depth);
+        final JsonObject object = Json.createObject();
+        final long size = readVarint(in);
+        for (long i = 0; i < size; i++) {
+            final long keyRef = readVarint(in);
+            final String key;
+            if (keyRef == 0) {
+                key = readString(in);
+            } else if (keyRef > 0 && keyRef <= dictionary.length) {
+                key = dictionary[(int) keyRef - 1];
+            } else {
+                throw new IllegalArgumentException("Unknown key index "
+                        + keyRef);
+            }
+            object.put(key, readValue(in, depth));
+        }
+        return object;
+    }
+
+    /**
+     * @param depth the nesting depth of the object or array that contains
+     * the value
+     */
+    private JsonValue readValue(final Input in, final int depth) {
+        final int type = in.read();
+        switch (type) {
+        case TYPE_NULL:
+            return Json.createNull();
+        case TYPE_FALSE:
+            return Json.create(false);
+        case TYPE_TRUE:
+            return Json.create(true);
+        case TYPE_INTEGER:
+            final long zigzag = readVarint(in);
+            return Json.create((double) ((zigzag >>> 1) ^ -(zigzag & 1)));
+        case TYPE_DOUBLE:
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | in.read();
+            }
+            return Json.create(Double.longBitsToDouble(bits));
+        case TYPE_STRING:
+            return Json.create(readString(in));
+        case TYPE_OBJECT:
+            return readObject(in, depth + 1);
+        case TYPE_ARRAY:
+            checkDepth(depth + 1);
+            final JsonArray array = Json.createArray();
+            final long length = readVarint(in);
+            for (int i = 0; i < length; i++) {
+                array.set(i, readValue(in, depth + 1));
+            }
+            return array;
+        default:
+            throw new IllegalArgumentException("Unknown value type " + type);
+        }
+    }
+
+    private static void checkDepth(final int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("State nested deeper than "
+                    + MAX_DEPTH + " levels");
+        }
+    }
+
+    private static String readString(final Input in) {
+        final long length = readVarint(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Malformed string length "
+                    + length);
+        }
+        if (length > in.bytes.length - in.position) {
+            throw new IllegalArgumentException("Truncated state");
+        }
+        final String string = new String(in.bytes, in.position, (int) length,
+                StandardCharsets.UTF_8);
+        in.position += (int) length;
+        return string;
+    }
+
+    private static long readVarint(final Input in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static String toBase64Url(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder((bytes.length * 4 + 2) / 3);
+        int i = 0;
+        for (; i + 2 < bytes.length; i += 3) {
+            final int chunk = (bytes[i] & 0xFF) << 16
+                    | (bytes[i + 1] & 0xFF) << 8 | bytes[i + 2] & 0xFF;
+            sb.append(BASE64URL[chunk >>> 18])
+                    .append(BASE64URL[chunk >>> 12 & 0x3F])
+                    .append(BASE64URL[chunk >>> 6 & 0x3F])
+                    .append(BASE64URL[chunk & 0x3F]);
+        }
+        final int remaining = bytes.length - i;
+        if (remaining == 1) {
+            final int chunk = (bytes[i] & 0xFF) << 16;
+            sb.append(BASE64URL[chunk >>> 18]).append(
+                    BASE64URL[chunk >>> 12 & 0x3F]);
+        } else if (remaining == 2) {
+            final int chunk = (bytes[i] & 0xFF) << 16
+                    | (bytes[i + 1] & 0xFF) << 8;
+            sb.append(BASE64URL[chunk >>> 18])
+                    .append(BASE64URL[chunk >>> 12 & 0x3F])
+                    .append(BASE64URL[chunk >>> 6 & 0x3F]);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] fromBase64Url(final String string, final int offset) {
+        final int chars = string.length() - offset;
+        if (chars % 4 == 1) {
+            throw new IllegalArgumentException("Malformed base64url");
+        }
+        final byte[] bytes = new byte[chars * 3 / 4];
+        int chunk = 0;
+        int bits = 0;
+        int position = 0;
+        for (int i = offset; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            final int value = c < 128 ? BASE64URL_VALUES[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Malformed base64url");
+            }
+            chunk = chunk << 6 | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                bytes[position++] = (byte) (chunk >>> bits);
+            }
+        }
+        return bytes;
+    }
+}
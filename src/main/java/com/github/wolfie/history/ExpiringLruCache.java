@@ -0,0 +1,116 @@
+package com.github.wolfie.history;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded map that evicts its least recently used entries, and forgets
+ * entries that have not been used within a time-to-live.
+ * <p>
+ * All methods are synchronized, so an instance may be shared between UIs of
+ * the same session.
+ */
+@SuppressWarnings("serial")
+class ExpiringLruCache<K, V> implements Serializable {
+
+    private static class Entry<V> implements Serializable {
+        private final V value;
+        private long lastAccess;
+
+        private Entry(final V value, final long now) {
+            this.value = value;
+            this.lastAccess = now;
+        }
+    }
+
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * @param maxEntries the maximum amount of entries to keep
+     * @param timeToLiveMillis how long an entry is kept after it was last
+     * used, or <code>0</code> to keep entries until they are evicted
+     * @throws IllegalArgumentException if <code>maxEntries</code> is less than
+     * 1, or <code>timeToLiveMillis</code> is negative
+     */
+    ExpiringLruCache(final int maxEntries, final long timeToLiveMillis)
+            throws IllegalArgumentException {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (timeToLiveMillis < 0) {
+            throw new IllegalArgumentException(
+                    "timeToLiveMillis may not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+        entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<K, Entry<V>> eldest) {
+                return size() > ExpiringLruCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the value for <code>key</code>, or <code>null</code> if there is
+     * none, or it has been evicted or expired
+     */
+    synchronized V get(final K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        final long now = now();
+        if (isExpired(entry, now)) {
+            entries.remove(key);
+            return null;
+        }
+        entry.lastAccess = now;
+        return entry.value;
+    }
+
+    synchronized void put(final K key, final V value) {
+        final long now = now();
+        removeExpired(now);
+        entries.put(key, new Entry<V>(value, now));
+    }
+
+    synchronized V remove(final K key) {
+        final Entry<V> entry = entries.remove(key);
+        return entry != null ? entry.value : null;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private void removeExpired(final long now) {
+        if (timeToLiveMillis == 0) {
+            return;
+        }
+        // the least recently used entries come first
+        final Iterator<Entry<V>> i = entries.values().iterator();
+        while (i.hasNext() && isExpired(i.next(), now)) {
+            i.remove();
+        }
+    }
+
+    private boolean isExpired(final Entry<V> entry, final long now) {
+        return timeToLiveMillis != 0
+                && now - entry.lastAccess > timeToLiveMillis;
+    }
+
+    private static long now() {
+        // wall clock time, since a replicated session may move between JVMs
+        return System.currentTimeMillis();
+    }
+}
@@ -2,21 +2,31 @@ package com.github.wolfie.history;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import elemental.json.Json;
 import elemental.json.JsonArray;
 import elemental.json.JsonException;
 import elemental.json.JsonObject;
+import elemental.json.JsonType;
 import elemental.json.JsonValue;
 import elemental.json.impl.JsonUtil;
-import elemental.json.JsonNull;
 
 import com.github.wolfie.history.HistoryExtension.ErrorEvent.Type;
 import com.vaadin.annotations.JavaScript;
@@ -25,11 +35,15 @@ import com.vaadin.navigator.Navigator;
 import com.vaadin.navigator.ViewDisplay;
 import com.vaadin.server.AbstractClientConnector;
 import com.vaadin.server.AbstractJavaScriptExtension;
+import com.vaadin.server.Extension;
+import com.vaadin.server.Page;
 import com.vaadin.server.VaadinServlet;
+import com.vaadin.server.VaadinSession;
 import com.vaadin.ui.ComponentContainer;
 import com.vaadin.ui.JavaScriptFunction;
 import com.vaadin.ui.SingleComponentContainer;
 import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
 
 /**
  * An extension that allows server-side control over the HTML5
@@ -44,7 +58,24 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
     
     protected final static ObjectMapper defaultMapper = new ObjectMapper();
     
+    /**
+     * The current address, as it was last given or reported by the browser.
+     */
     private String lastAddress;
+    /** Derived from {@link #lastAddress}, not serialized */
+    private transient String lastNormalizedAddress;
+    private int lastStateHash;
+    /**
+     * The state of the current history entry, to tell apart different states
+     * that share {@link #lastStateHash}. Not serialized, the state isn't
+     * {@link #lastStateKnown known} after deserialization.
+     */
+    private transient JsonObject lastState;
+    /**
+     * Whether the state of the current history entry is known. It isn't until
+     * the first push, replace or pop.
+     */
+    private boolean lastStateKnown = false;
 
     /**
      * An event class that carries application state data for the currently
@@ -53,13 +84,28 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
     public class PopStateEvent {
 
         private Map<String, String> map = null;
+        private final Map<String, String> sourceMap;
         private final JsonObject json;
         private final String stringAddress;
         private URI address;
 
-        private PopStateEvent(final JsonObject json, final String address) {
+        private final boolean stateEvicted;
+        private HistoryState state;
+
+        /**
+         * @param sourceMap the map that <code>json</code> was created from, if
+         * any. {@link #getStateAsMap()} uses it instead of converting the JSON
+         * back.
+         * @param stateEvicted whether the state was held in a
+         * {@link StateStore} that has evicted it
+         */
+        private PopStateEvent(final JsonObject json,
+                final Map<String, String> sourceMap, final String address,
+                final boolean stateEvicted) {
             this.json = json;
+            this.sourceMap = sourceMap;
             this.stringAddress = address;
+            this.stateEvicted = stateEvicted;
         }
 
         /**
@@ -72,26 +118,42 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
             return json;
         }
 
+        /**
+         * Returns a read-only view over the state data, with typed getters.
+         * Never <code>null</code>, even if the entry has no state.
+         * <p>
+         * Unlike {@link #getStateAsMap()}, this doesn't copy anything.
+         *
+         * @return the state object
+         */
+        public HistoryState getState() {
+            if (state == null) {
+                state = new HistoryState(json, sourceMap);
+            }
+            return state;
+        }
+
         /**
          * Returns the state data as an <strong>unmodifiable</strong>
          * {@link Map Map}. Never <code>null</code>.
+         * <p>
+         * Values that aren't strings are converted like in
+         * {@link HistoryState#getString(String, String)}.
          * 
          * @return the state object
          */
         public Map<String, String> getStateAsMap() {
-            if (map == null) {
+            if (map == null && sourceMap != null) {
+                map = Collections
+                        .unmodifiableMap(new LinkedHashMap<String, String>(
+                                sourceMap));
+            } else if (map == null) {
                 final LinkedHashMap<String, String> tempMap = new LinkedHashMap<String, String>();
-                final String[] names = json.keys();
+                final String[] names = json != null ? json.keys() : null;
                 if (names != null) {
+                    final HistoryState view = getState();
                     for (final String key : names) {
-                        try {
-                            tempMap.put(key, json.getString(key));
-                        } catch (final JsonException e) {
-                            throw new RuntimeException("org.json.JSONObject "
-                                    + "seems to have a bug, as it's "
-                                    + "returning keys on objects "
-                                    + "that don't exist.", e);
-                        }
+                        tempMap.put(key, view.getString(key, null));
                     }
                 }
                 map = Collections.unmodifiableMap(tempMap);
@@ -99,6 +161,23 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
             return map;
         }
 
+        /**
+         * Checks whether the state of this history entry was lost on the
+         * server side.
+         * <p>
+         * This can only happen when a {@link StateStore} is in use: the
+         * browser only knows a key for the state, and the store has since
+         * evicted the state for that key. In that case, the state of this
+         * event is <code>null</code>, and the application should rebuild its
+         * state from the {@link #getAddress() address} instead.
+         *
+         * @return <code>true</code> if the state was evicted
+         * @see HistoryExtension#setStateStore(StateStore)
+         */
+        public boolean isStateEvicted() {
+            return stateEvicted;
+        }
+
         /**
          * @return the {@link HistoryExtension} instance from which this event
          * was fired.
@@ -122,7 +201,7 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
         public URI getAddress() {
             if (address == null) {
                 try {
-                    address = new URI(stringAddress);
+                    address = Addresses.parse(stringAddress);
                 } catch (final URISyntaxException e) {
                     throw new RuntimeException(e);
                 }
@@ -152,12 +231,108 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
         void popState(PopStateEvent event);
     }
 
+    /**
+     * A {@link PopStateListener} that is run on an {@link Executor} instead of
+     * the request thread, so that it doesn't hold the session lock while it
+     * does slow work, such as loading data for the view that is navigated to.
+     * <p>
+     * The listener is called without the session lock, so it must not touch
+     * the UI. Instead, it returns the UI changes as a {@link Runnable}, which
+     * is run through {@link UI#access(Runnable)}. Unless the UI uses server
+     * push, the changes reach the browser on its next request.
+     *
+     * @see HistoryExtension#addAsyncPopStateListener(AsyncPopStateListener,
+     * Executor)
+     */
+    public static interface AsyncPopStateListener {
+
+        /**
+         * A state was popped off the browser's history stack
+         *
+         * @param event The event object describing the application state.
+         * @return the changes to apply to the UI, or <code>null</code> for none
+         */
+        Runnable popState(PopStateEvent event);
+    }
+
+    /**
+     * An {@link AsyncPopStateListener} together with the executor it runs on.
+     * The registrations of a UI that use the same executor share a
+     * {@link SerialExecutor}, so their events are handled one at a time, in
+     * order. An event is skipped if a newer one is already waiting.
+     */
+    private static class AsyncRegistration implements Serializable {
+        private final AsyncPopStateListener listener;
+        private final transient SerialExecutor executor;
+        private final AtomicLong latestSequence = new AtomicLong();
+
+        public AsyncRegistration(final AsyncPopStateListener listener,
+                final SerialExecutor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        public void dispatch(final UI ui, final PopStateEvent event) {
+            if (executor == null) {
+                // the executor didn't survive serialization
+                dispatchNow(event);
+                return;
+            }
+
+            final long sequence = latestSequence.incrementAndGet();
+            try {
+                execute(ui, event, sequence);
+            } catch (final RejectedExecutionException e) {
+                Logger.getLogger(HistoryExtension.class.getName()).log(
+                        Level.WARNING, "Async PopStateListener rejected by "
+                                + "its executor, called on the request "
+                                + "thread instead", e);
+                dispatchNow(event);
+            }
+        }
+
+        private void dispatchNow(final PopStateEvent event) {
+            final Runnable changes = listener.popState(event);
+            if (changes != null) {
+                changes.run();
+            }
+        }
+
+        private void execute(final UI ui, final PopStateEvent event,
+                final long sequence) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (sequence != latestSequence.get()) {
+                        return;
+                    }
+                    try {
+                        final Runnable changes = listener.popState(event);
+                        if (changes != null
+                                && sequence == latestSequence.get()) {
+                            ui.access(changes);
+                        }
+                    } catch (final UIDetachedException e) {
+                        // the UI was closed in the meantime
+                    } catch (final RuntimeException e) {
+                        Logger.getLogger(HistoryExtension.class.getName())
+                                .log(Level.WARNING,
+                                        "Async PopStateListener failed", e);
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * An event that carries information about an error that occurred on the
      * client side.
      * <p>
      * <em>Note:</em> if an ErrorEvent is not {@link #cancel() cancelled},
-     * {@link HistoryExtension} will raise a runtime exception.
+     * {@link HistoryExtension} will raise a runtime exception. An
+     * {@link Type#UNSUPPORTED} error is the exception when the
+     * {@link HistoryExtension#setFragmentFallback(boolean) fragment fallback}
+     * is enabled, since the extension keeps working.
      *
      * @see #cancel()
      * @see HistoryExtension#addErrorListener(ErrorListener)
@@ -230,7 +405,7 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
         public URI getAddress() {
             if (address == null) {
                 try {
-                    address = new URI(stringAddress);
+                    address = Addresses.parse(stringAddress);
                 } catch (final URISyntaxException e) {
                     throw new RuntimeException(e);
                 }
@@ -285,8 +460,131 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
         void onError(ErrorEvent event);
     }
 
-    private final List<PopStateListener> popListeners = new ArrayList<PopStateListener>();
-    private final List<ErrorListener> errorListeners = new ArrayList<ErrorListener>();
+    /**
+     * A history command that has been requested during the current request,
+     * but not yet sent to the client.
+     */
+    private static class HistoryCommand implements Serializable {
+        private final String name;
+        private JsonObject state;
+        private String url;
+        private final Object[] arguments;
+        /**
+         * The sequence number of the optimistic navigation that this command
+         * corrects, or <code>-1</code>. The browser ignores the command if it
+         * has navigated again since.
+         */
+        private long sequence = -1;
+        /** see {@link HistoryExtension#setTitle(String)} */
+        private String title;
+        /** see {@link HistoryExtension#setScrollTarget(String)} */
+        private String scrollTarget;
+
+        private HistoryCommand(final String name, final JsonObject state,
+                final String url) {
+            this.name = name;
+            this.state = state;
+            this.url = url;
+            this.arguments = null;
+        }
+
+        private HistoryCommand(final String name, final Object... arguments) {
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        private boolean isStateCommand() {
+            return arguments == null;
+        }
+
+        private Object[] getArguments(final StateCodec codec,
+                final StateStore store) {
+            if (!isStateCommand()) {
+                return arguments;
+            }
+
+            final JsonValue encoded;
+            if (state == null) {
+                encoded = null;
+            } else if (store != null) {
+                final JsonObject reference = Json.createObject();
+                reference.put(STATE_KEY, store.put(state));
+                encoded = reference;
+            } else {
+                encoded = codec.encode(state);
+            }
+            if (title != null || scrollTarget != null) {
+                return new Object[] { encoded, url,
+                        sequence < 0 ? null : sequence, title, scrollTarget };
+            }
+            return sequence < 0 ? new Object[] { encoded, url }
+                    : new Object[] { encoded, url, sequence };
+        }
+    }
+
+    /**
+     * Describes which state of a burst of
+     * {@link HistoryExtension#throttledReplaceState(JsonObject, String)
+     * throttled replaceState} calls is sent to the browser first.
+     *
+     * @see HistoryExtension#setReplaceStateThrottle(long, ThrottleEdge)
+     */
+    public enum ThrottleEdge {
+        /**
+         * The first state of a burst is sent immediately. States that arrive
+         * within the minimum interval are held back, and only the latest of
+         * them is sent once the interval has passed.
+         */
+        LEADING,
+        /**
+         * No state is sent before the minimum interval has passed. Only the
+         * latest state of the burst is sent.
+         */
+        TRAILING
+    }
+
+    /*
+     * The listener lists are only created when a listener is added, and
+     * dropped when the last one is removed, so that extensions without
+     * listeners of some kind don't carry empty lists around in the session.
+     */
+    private List<PopStateListener> popListeners;
+    private List<AsyncRegistration> asyncPopListeners;
+    private List<ErrorListener> errorListeners;
+
+    /**
+     * Commands queued during the current request, or <code>null</code> if
+     * there are none. They are merged as they come in, and sent to the client
+     * in {@link #beforeClientResponse(boolean)}
+     */
+    private transient List<HistoryCommand> pendingCommands;
+    /**
+     * The document title and scroll target for the current response, or
+     * <code>null</code>. They are sent along with the last queued state
+     * command, if there is one.
+     */
+    private transient String pendingTitle;
+    private transient String pendingScrollTarget;
+
+    private long throttleIntervalNanos = 0;
+    private ThrottleEdge throttleEdge = ThrottleEdge.LEADING;
+    /**
+     * Measured with {@link System#nanoTime()}, which means nothing on another
+     * node, so a deserialized extension starts with a closed window.
+     */
+    private transient long throttleWindowStart;
+    private transient boolean throttleWindowOpen = false;
+
+    /**
+     * The latest state given to a throttled replaceState that hasn't been
+     * sent yet, either a {@link Map} or a {@link JsonObject}. Kept as-is, so
+     * that states that get superseded are never serialized.
+     */
+    private Object throttledState;
+    private String throttledUrl;
+    private boolean throttledPending = false;
+    /** see {@link #keepDirtyForThrottledTail()} */
+    private transient boolean throttledTailMarkQueued = false;
 
     /**
      * A flag that is set <em>asynchronously</em>. It denotes whether the
@@ -295,6 +593,71 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
      * @see ErrorEvent.Type#UNSUPPORTED
      */
     private boolean unsupported = false;
+    /** Whether the dropped calls of an unsupported browser have been logged */
+    private transient boolean unsupportedLogged = false;
+    /**
+     * Set when the browser is known to be unsupported from an earlier UI, so
+     * that the error listeners are told in the first response, like they
+     * would be after the client's detection.
+     */
+    private transient boolean knownUnsupportedPending = false;
+
+    /**
+     * The session attribute that tells that the session's browser doesn't
+     * support the history API, so that later UIs don't need to detect it.
+     * Only the session's own client can set it, so a client that lies about
+     * its browser only affects itself.
+     */
+    private static final String UNSUPPORTED_ATTRIBUTE = HistoryExtension.class
+            .getName() + ".unsupported";
+
+    private static final StateCodec DEFAULT_STATE_CODEC = new JsonStateCodec();
+
+    /** <code>null</code> for {@link #DEFAULT_STATE_CODEC} */
+    private StateCodec stateCodec;
+
+    /**
+     * The name of the only property of the state objects that are sent to the
+     * browser instead of the real state, when a {@link StateStore} is used.
+     */
+    private static final String STATE_KEY = "historyStateKey";
+
+    private StateStore stateStore = null;
+
+    /**
+     * The sequence number of the latest <code>popstate</code> that has been
+     * handled. Older ones that arrive later are dropped.
+     */
+    private double lastPopStateSequence = -1;
+
+    private boolean optimisticNavigation = false;
+
+    /**
+     * The sequence number of the optimistic navigation being handled, or
+     * <code>-1</code>
+     */
+    private transient long optimisticSequence = -1;
+    private transient boolean optimisticConfirmed;
+    /**
+     * <code>true</code> while the server side of a navigation that the
+     * browser has already pushed is running. Its pushes replace the browser's
+     * entry instead of adding another one.
+     */
+    private transient boolean browserNavigation = false;
+
+    /** <code>true</code> while the listeners handle a <code>popstate</code> */
+    private transient boolean popStateInProgress = false;
+
+    private static volatile HistoryMetrics defaultMetrics = HistoryMetrics.NOOP;
+
+    /**
+     * Set explicitly with {@link #setMetrics(HistoryMetrics)}. Metrics are
+     * usually shared, so they're not serialized with the session.
+     */
+    private transient HistoryMetrics metrics;
+
+    /** The statistics of the service, if any, resolved on attach */
+    private transient HistoryStats stats;
 
     /**
      * A convenience method to extend a UI with a properly configured
@@ -334,44 +697,101 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
         addFunction("popstate", new JavaScriptFunction() {
             @Override
             public void call(final JsonArray arguments) throws JsonException {
-                if (arguments.length() > 0) {
-                    try {
-                        final String address = arguments.getString(1);
-                        JsonObject state;
-                        if (arguments.length() > 0 && !(arguments.get(0) instanceof JsonNull) && arguments.get(0) != null) {
-                            // state not always object, I assuem this is bug, but on the other hand there is usually no need for state in Vaadin app 
-                            try {
-                                state = arguments.getObject(0);
-                            } catch (Exception e) {
-                                state = null;
-                            }
-                        } else {
-                            state = null;
-                        }
-                        fireListeners(state, address);
-                    } catch (final JsonException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
+                onPopState(arguments);
             }
         });
 
         addFunction("error", new JavaScriptFunction() {
             @Override
             public void call(final JsonArray arguments) throws JsonException {
-                final int errorType = (int) arguments.getNumber(0);
-                final ErrorEvent.Type type = ErrorEvent.Type.values()[errorType];
-                final String name = arguments.getString(1);
-                final String message = arguments.getString(2);
-                final String address = arguments.getString(3);
-
-                final ErrorEvent event = new ErrorEvent(type, name, message,
-                        address);
-                fireError(event);
+                onError(arguments);
             }
         });
     }
 
+    /**
+     * Handles the arguments of a client-side <code>popstate</code> call.
+     */
+    void onPopState(final JsonArray arguments) {
+        if (arguments.length() > 0) {
+            try {
+                final HistoryMetrics metrics = getMetrics();
+                metrics.count(HistoryMetrics.Operation.POP_STATE);
+                if (arguments.length() > 2) {
+                    final double sequence = arguments.getNumber(2);
+                    if (sequence <= lastPopStateSequence) {
+                        // the browser has already moved on from this entry
+                        metrics.count(HistoryMetrics.Operation.DEDUPLICATED);
+                        return;
+                    }
+                    lastPopStateSequence = sequence;
+                }
+
+                final String address = arguments.getString(1);
+                final JsonValue stateValue = arguments.get(0);
+                if (metrics != HistoryMetrics.NOOP
+                        && isMeasurable(stateValue)) {
+                    metrics.payload(JsonStates.jsonSize(stateValue));
+                }
+                /*
+                 * state not always something we've sent, e.g. when the entry
+                 * was created outside of HistoryExtension. The codec returns
+                 * null for those.
+                 */
+                if (stateValue == null
+                        || stateValue.getType() == JsonType.NULL) {
+                    fireListeners(null, address);
+                    return;
+                }
+
+                final String stateKey = getStateKey(stateValue);
+                if (stateKey != null && stateStore != null) {
+                    final JsonObject state = stateStore.get(stateKey);
+                    fireListeners(state, address, state == null);
+                } else if (stateKey != null) {
+                    // stored by reference earlier, but the store is gone now
+                    fireListeners(null, address, true);
+                } else {
+                    fireListeners(getStateCodec().decode(stateValue), address);
+                }
+            } catch (final JsonException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Handles the arguments of a client-side <code>error</code> call.
+     */
+    void onError(final JsonArray arguments) {
+        final int errorType = (int) arguments.getNumber(0);
+        final ErrorEvent.Type type = ErrorEvent.Type.values()[errorType];
+        final String name = arguments.getString(1);
+        final String message = arguments.getString(2);
+        final String address = arguments.getString(3);
+
+        final ErrorEvent event = new ErrorEvent(type, name, message, address);
+        fireError(event);
+    }
+
+    /**
+     * Finds the {@link HistoryExtension} of a UI.
+     *
+     * @param ui the UI
+     * @return the extension, or <code>null</code> if the UI hasn't been
+     * extended
+     */
+    public static HistoryExtension get(final UI ui) {
+        if (ui != null) {
+            for (final Extension extension : ui.getExtensions()) {
+                if (extension instanceof HistoryExtension) {
+                    return (HistoryExtension) extension;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Extend a {@link UI} with this {@link HistoryExtension}
      * @param ui The UI to be extended
@@ -381,18 +801,47 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
         super.extend(acc);
     }
 
+    @Override
+    public void attach() {
+        super.attach();
+        if (!unsupported && isKnownUnsupported(getSession())) {
+            // the client skips its detection when told the result
+            unsupported = true;
+            knownUnsupportedPending = true;
+            getState().setHistoryUnsupported(true);
+        }
+        stats = HistoryStats.get(getSession().getService());
+        if (stats != null) {
+            stats.extensionAttached();
+            if (unsupported) {
+                stats.extensionUnsupported();
+            }
+        }
+        if (lastAddress == null) {
+            final URI location = getUI().getPage().getLocation();
+            if (location != null) {
+                lastAddress = location.toString();
+                lastNormalizedAddress = Addresses.normalize(lastAddress);
+            }
+        }
+    }
+
     /**
      * Tells the browser to go back one step in its history stack.
      */
     public void back() {
-        callFunction("back");
+        getMetrics().count(HistoryMetrics.Operation.BACK);
+        flushThrottledReplaceState();
+        queueCommand(new HistoryCommand("back"));
     }
 
     /**
      * Tells the browser to go forward one step in its history stack.
      */
     public void forward() {
-        callFunction("forward");
+        getMetrics().count(HistoryMetrics.Operation.FORWARD);
+        flushThrottledReplaceState();
+        queueCommand(new HistoryCommand("forward"));
     }
 
     /**
@@ -404,7 +853,9 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
      */
     @SuppressWarnings("boxing")
     public void go(final int steps) {
-        callFunction("go", steps);
+        getMetrics().count(HistoryMetrics.Operation.GO);
+        flushThrottledReplaceState();
+        queueCommand(new HistoryCommand("go", steps));
     }
 
     /**
@@ -435,16 +886,27 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
      */
     public void pushState(final Map<String, String> nextStateMap,
             final String nextUrl) {
-        String jsonStateString = toJson(nextStateMap);
-        callFunction("pushState", jsonStateString, nextUrl);
-        fireListeners(toJsonObject(jsonStateString), nextUrl);
+        flushThrottledReplaceState();
+        final JsonObject nextStateJson = JsonStates.toJsonObject(nextStateMap);
+        applyState("pushState", nextStateJson, nextStateMap, nextUrl);
     }
-    
+
+    /**
+     * @deprecated state maps are no longer sent as JSON strings. This method
+     * is not used by {@link HistoryExtension} anymore.
+     */
+    @Deprecated
     protected JsonObject toJsonObject(String json) {
         JsonValue jsonStateValue = JsonUtil.parse(json);
         return jsonStateValue instanceof JsonObject ? (JsonObject) jsonStateValue : null;
     }
-    
+
+    /**
+     * @deprecated state maps are converted directly into {@link JsonObject
+     * JsonObjects}. This method is not used by {@link HistoryExtension}
+     * anymore.
+     */
+    @Deprecated
     protected String toJson(Map m) {
         try {
             return defaultMapper.writeValueAsString(m);
@@ -480,8 +942,8 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
      * @see PopStateEvent#getStateAsMap()
      */
     public void pushState(final JsonObject nextStateJson, final String nextUrl) {
-        callFunction("pushState", nextStateJson, nextUrl);
-        fireListeners(nextStateJson, nextUrl);
+        flushThrottledReplaceState();
+        applyState("pushState", nextStateJson, null, nextUrl);
     }
 
     /**
@@ -505,9 +967,9 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
      */
     public void replaceState(final Map<String, String> newStateMap,
             final String newUrl) {
-        String jsonStateString = toJson(newStateMap);
-        callFunction("replaceState", jsonStateString, newUrl);
-        fireListeners(toJsonObject(jsonStateString), newUrl);
+        discardThrottledReplaceState();
+        final JsonObject newStateJson = JsonStates.toJsonObject(newStateMap);
+        applyState("replaceState", newStateJson, newStateMap, newUrl);
     }
 
     /**
@@ -530,8 +992,535 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
      * @see PopStateEvent#getStateAsJson()
      */
     public void replaceState(final JsonObject newStateJson, final String newUrl) {
-        callFunction("replaceState", newStateJson, newUrl);
-        fireListeners(newStateJson, newUrl);
+        discardThrottledReplaceState();
+        applyState("replaceState", newStateJson, null, newUrl);
+    }
+
+    /**
+     * Configures how often {@link #throttledReplaceState(JsonObject, String)}
+     * and {@link #throttledReplaceState(Map, String)} may send a state to the
+     * browser.
+     * <p>
+     * States that arrive faster than this are dropped, except for the latest
+     * one, which is sent when the interval has passed, or right before the
+     * next {@link #pushState(JsonObject, String) pushState}, {@link #back()},
+     * {@link #forward()} or {@link #go(int)}.
+     * <p>
+     * <em>Note:</em> there is no server-side timer involved. A held-back state
+     * is sent on the first throttled call after the interval has passed, with
+     * the first response to the browser after the interval has passed, on one
+     * of the calls above, or on {@link #flushThrottledReplaceState()}. If
+     * nothing reaches the server after a burst, e.g. the user stops scrolling,
+     * the latest state stays held back until the next request. Enable polling,
+     * or flush when the burst is known to be over, if that state matters. With
+     * server push enabled, a held-back state only goes out with a response
+     * that changes this extension anyway, so flush it from a timer through
+     * {@link UI#access(Runnable)}.
+     *
+     * @param minIntervalMillis the minimum amount of milliseconds between two
+     * sent states. <code>0</code> disables throttling.
+     * @param edge which state of a burst is sent first
+     * @throws IllegalArgumentException if <code>minIntervalMillis</code> is
+     * negative, or <code>edge</code> is <code>null</code>
+     */
+    public void setReplaceStateThrottle(final long minIntervalMillis,
+            final ThrottleEdge edge) throws IllegalArgumentException {
+        if (minIntervalMillis < 0) {
+            throw new IllegalArgumentException(
+                    "minIntervalMillis may not be negative");
+        }
+        if (edge == null) {
+            throw new IllegalArgumentException("edge may not be null");
+        }
+        flushThrottledReplaceState();
+        throttleIntervalNanos = TimeUnit.MILLISECONDS
+                .toNanos(minIntervalMillis);
+        throttleEdge = edge;
+        throttleWindowOpen = false;
+    }
+
+    /**
+     * A rate-limited version of {@link #replaceState(Map, String)}, meant for
+     * tracking high-frequency progress, like scroll position or video
+     * progress.
+     *
+     * @param newStateMap The state representing the <strong>upcoming</strong>
+     * application state
+     * @param newUrl A URI string of what will be displayed in the browser's
+     * location bar. Or <code>null</code> if the current URL should be used
+     * instead
+     * @see #setReplaceStateThrottle(long, ThrottleEdge)
+     */
+    public void throttledReplaceState(final Map<String, String> newStateMap,
+            final String newUrl) {
+        throttle(newStateMap, newUrl);
+    }
+
+    /**
+     * A rate-limited version of {@link #replaceState(JsonObject, String)},
+     * meant for tracking high-frequency progress, like scroll position or
+     * video progress.
+     *
+     * @param newStateJson The state representing the <strong>upcoming</strong>
+     * application state
+     * @param newUrl A URI string of what will be displayed in the browser's
+     * location bar. Or <code>null</code> if the current URL should be used
+     * instead
+     * @see #setReplaceStateThrottle(long, ThrottleEdge)
+     */
+    public void throttledReplaceState(final JsonObject newStateJson,
+            final String newUrl) {
+        throttle(newStateJson, newUrl);
+    }
+
+    /**
+     * Sends the latest held-back throttled state to the browser right away,
+     * if there is one.
+     *
+     * @see #setReplaceStateThrottle(long, ThrottleEdge)
+     */
+    public void flushThrottledReplaceState() {
+        if (throttledPending) {
+            final Object state = throttledState;
+            final String url = throttledUrl;
+            discardThrottledReplaceState();
+            sendThrottled(state, url, System.nanoTime());
+        }
+    }
+
+    private void throttle(final Object state, final String url) {
+        final long now = System.nanoTime();
+        if (throttleWindowOpen
+                && now - throttleWindowStart >= throttleIntervalNanos) {
+            throttleWindowOpen = false;
+        }
+
+        if (!throttleWindowOpen) {
+            if (throttleEdge == ThrottleEdge.LEADING || throttledPending
+                    || throttleIntervalNanos == 0) {
+                discardThrottledReplaceState();
+                sendThrottled(state, url, now);
+                return;
+            }
+            // trailing edge: the first state of a burst opens the window
+            throttleWindowStart = now;
+            throttleWindowOpen = true;
+        }
+
+        throttledState = state;
+        if (url != null || !throttledPending) {
+            throttledUrl = url;
+        }
+        throttledPending = true;
+        // otherwise the framework won't ask for the tail
+        markAsDirty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sendThrottled(final Object state, final String url,
+            final long now) {
+        throttleWindowStart = now;
+        throttleWindowOpen = true;
+        if (state instanceof JsonObject || state == null) {
+            replaceState((JsonObject) state, url);
+        } else {
+            replaceState((Map<String, String>) state, url);
+        }
+    }
+
+    private void discardThrottledReplaceState() {
+        throttledState = null;
+        throttledUrl = null;
+        throttledPending = false;
+    }
+
+    /**
+     * Sets the codec that converts state objects into the form in which they
+     * are sent to, and stored in, the browser.
+     * <p>
+     * <em>Note:</em> history entries that were created with a different codec
+     * will be reported with a <code>null</code> state.
+     *
+     * @param stateCodec the codec to use
+     * @throws IllegalArgumentException if <code>stateCodec</code> is
+     * <code>null</code>
+     * @see JsonStateCodec
+     * @see CompactStateCodec
+     */
+    public void setStateCodec(final StateCodec stateCodec)
+            throws IllegalArgumentException {
+        if (stateCodec == null) {
+            throw new IllegalArgumentException("stateCodec may not be null");
+        }
+        this.stateCodec = stateCodec == DEFAULT_STATE_CODEC ? null
+                : stateCodec;
+    }
+
+    /**
+     * @return the codec that is used for state objects. Never
+     * <code>null</code>.
+     * @see #setStateCodec(StateCodec)
+     */
+    public StateCodec getStateCodec() {
+        return stateCodec != null ? stateCodec : DEFAULT_STATE_CODEC;
+    }
+
+    /**
+     * Sets a store that keeps state objects on the server. The browser then
+     * only gets a short key for each state, no matter how large the state is.
+     * <p>
+     * {@link PopStateEvent#getStateAsJson()} resolves the key transparently.
+     * If the store has evicted the state in the meantime,
+     * {@link PopStateEvent#isStateEvicted()} returns <code>true</code>.
+     * <p>
+     * The store that is shared by all UIs of a session is available through
+     * {@link StateStore#getSessionStore(com.vaadin.server.VaadinSession)}.
+     *
+     * @param stateStore the store, or <code>null</code> to send states to the
+     * browser again
+     */
+    public void setStateStore(final StateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    /**
+     * @return the store that keeps state objects on the server, or
+     * <code>null</code> if states are sent to the browser
+     * @see #setStateStore(StateStore)
+     */
+    public StateStore getStateStore() {
+        return stateStore;
+    }
+
+    private static String getStateKey(final JsonValue stateValue) {
+        if (stateValue instanceof JsonObject) {
+            final JsonObject object = (JsonObject) stateValue;
+            if (object.hasKey(STATE_KEY)
+                    && object.get(STATE_KEY).getType() == JsonType.STRING
+                    && object.keys().length == 1) {
+                return object.getString(STATE_KEY);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the time window in which the browser collects <code>popstate</code>
+     * events before reporting them to the server.
+     * <p>
+     * When the user presses back or forward repeatedly, or jumps through the
+     * history menu, only the entry that the browser ends up at is reported,
+     * so that views aren't built for entries that are left right away.
+     *
+     * @param millis the window in milliseconds, or <code>0</code> to report
+     * every event right away. The default is 50.
+     * @throws IllegalArgumentException if <code>millis</code> is negative
+     */
+    public void setPopStateCoalesceWindow(final int millis)
+            throws IllegalArgumentException {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis may not be negative");
+        }
+        getState().setPopStateCoalesceMillis(millis);
+    }
+
+    /**
+     * @return the time window in which <code>popstate</code> events are
+     * collected, in milliseconds
+     * @see #setPopStateCoalesceWindow(int)
+     */
+    public int getPopStateCoalesceWindow() {
+        return getState(false).getPopStateCoalesceMillis();
+    }
+
+    @Override
+    protected HistoryExtensionState getState() {
+        return (HistoryExtensionState) super.getState();
+    }
+
+    @Override
+    protected HistoryExtensionState getState(final boolean markAsDirty) {
+        return (HistoryExtensionState) super.getState(markAsDirty);
+    }
+
+    /**
+     * Sets the metrics that all new and deserialized {@link HistoryExtension
+     * HistoryExtensions} report to, unless they have metrics of their own.
+     *
+     * @param metrics the metrics, or <code>null</code> to report nowhere
+     * @see StripedHistoryMetrics
+     */
+    public static void setDefaultMetrics(final HistoryMetrics metrics) {
+        defaultMetrics = metrics != null ? metrics : HistoryMetrics.NOOP;
+    }
+
+    /**
+     * @return the metrics that {@link HistoryExtension HistoryExtensions}
+     * report to by default
+     * @see #setDefaultMetrics(HistoryMetrics)
+     */
+    public static HistoryMetrics getDefaultMetrics() {
+        return defaultMetrics;
+    }
+
+    /**
+     * Sets the metrics that this extension, and the navigation state managers
+     * built on it, report to, instead of the {@link HistoryStats} of the
+     * service or the default metrics.
+     * <p>
+     * <em>Note:</em> the metrics aren't serialized with the session. After
+     * deserialization, the {@link #setDefaultMetrics(HistoryMetrics) default
+     * metrics} are used.
+     *
+     * @param metrics the metrics, or <code>null</code> to use the default
+     * metrics
+     */
+    public void setMetrics(final HistoryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the metrics that this extension reports to, never
+     * <code>null</code>
+     */
+    public HistoryMetrics getMetrics() {
+        if (metrics != null) {
+            return metrics;
+        }
+        return stats != null ? stats : defaultMetrics;
+    }
+
+    /**
+     * Records that the browser has already pushed a history entry with a
+     * <code>null</code> state by itself, as {@link PushStateLink} does. A
+     * following push of the same entry, e.g. by the {@link NavManager} of the
+     * navigation that the link causes, then doesn't reach the browser again.
+     * <p>
+     * Listeners aren't notified, since the entry is already shown.
+     *
+     * @param address the address of the new entry
+     */
+    void browserPushed(final String address) {
+        // a held back replace would land on the new entry now
+        discardThrottledReplaceState();
+        setCurrent(address, Addresses.normalize(address), null,
+                JsonStates.hash(null));
+    }
+
+    /**
+     * Sets whether navigations that the browser has already shown in the
+     * address bar, such as {@link PushStateLink} clicks, are confirmed by the
+     * server.
+     * <p>
+     * A link pushes its address as soon as it's clicked, so that the address
+     * bar doesn't lag behind on slow connections. In the optimistic mode, the
+     * server then checks the entry against the navigation it causes:
+     * <ul>
+     * <li>If the navigation pushes the same address, nothing is sent back.
+     * <li>If it pushes a different address, e.g. because the view redirected
+     * elsewhere, the entry is corrected with a <code>replaceState</code>
+     * instead of pushing another one.
+     * <li>If it pushes nothing, e.g. because a
+     * {@link com.vaadin.navigator.ViewChangeListener} cancelled it, the
+     * browser goes back to the previous entry.
+     * </ul>
+     * Each optimistic navigation has a sequence number, and the browser
+     * ignores corrections to navigations that the user has already moved on
+     * from.
+     * <p>
+     * This needs the navigation state manager to push through this extension,
+     * as the one from {@link #createNavigationStateManager(String)} does.
+     * Otherwise every optimistic navigation looks cancelled. The mode is off by
+     * default.
+     *
+     * @param optimisticNavigation <code>true</code> to confirm optimistic
+     * navigations
+     * @see #navigateOptimistically(String, long, Runnable)
+     */
+    public void setOptimisticNavigation(final boolean optimisticNavigation) {
+        this.optimisticNavigation = optimisticNavigation;
+    }
+
+    /**
+     * @return <code>true</code> if optimistic navigations are confirmed
+     * @see #setOptimisticNavigation(boolean)
+     */
+    public boolean isOptimisticNavigation() {
+        return optimisticNavigation;
+    }
+
+    /**
+     * Handles a navigation that the browser has already pushed to its
+     * history, with a <code>null</code> state. Components that update the
+     * address bar on the client side call this when the server hears about
+     * it.
+     * <p>
+     * The entry becomes the current one, so that the same push from the
+     * navigation isn't sent to the browser again. A push of a different
+     * address, e.g. with the query that {@link NavManager} keeps, replaces
+     * the entry instead of adding another one. In the
+     * {@link #setOptimisticNavigation(boolean) optimistic mode}, the entry is
+     * also confirmed, corrected or taken back when the navigation has run.
+     *
+     * @param address the address that the browser pushed
+     * @param sequence the sequence number that the browser gave the
+     * navigation
+     * @param navigation the server side of the navigation, e.g. a call to
+     * {@link Navigator#navigateTo(String)}. It is run right away.
+     */
+    @SuppressWarnings("boxing")
+    public void navigateOptimistically(final String address,
+            final long sequence, final Runnable navigation) {
+        if (!optimisticNavigation || sequence < 0) {
+            browserPushed(address);
+            browserNavigation = true;
+            try {
+                navigation.run();
+            } finally {
+                browserNavigation = false;
+            }
+            return;
+        }
+
+        final String previousAddress = lastAddress;
+        final String previousNormalizedAddress = lastNormalizedAddress;
+        final JsonObject previousState = lastState;
+        final int previousStateHash = lastStateHash;
+        final boolean previousStateKnown = lastStateKnown;
+
+        browserPushed(address);
+        optimisticSequence = sequence;
+        optimisticConfirmed = false;
+        try {
+            navigation.run();
+        } finally {
+            optimisticSequence = -1;
+            if (!optimisticConfirmed) {
+                lastAddress = previousAddress;
+                lastNormalizedAddress = previousNormalizedAddress;
+                lastState = previousState;
+                lastStateHash = previousStateHash;
+                lastStateKnown = previousStateKnown;
+                queueCommand(new HistoryCommand("back", sequence));
+                final Page page = getUI() != null ? getUI().getPage() : null;
+                if (previousAddress != null && page != null
+                        && page.getLocation() != null) {
+                    page.updateLocation(page.getLocation()
+                            .resolve(previousAddress).toString(), false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes back an entry that the browser has already pushed to its history,
+     * for a navigation that the server won't run, e.g. because the link that
+     * was clicked has been removed since. The browser goes back to the entry
+     * of the current view, unless the user has navigated again since. Without
+     * a sequence number, the address of the current view replaces the pushed
+     * one instead.
+     *
+     * @param sequence the sequence number that the browser gave the
+     * navigation, or <code>-1</code> if there is none
+     */
+    @SuppressWarnings("boxing")
+    void cancelNavigation(final long sequence) {
+        flushThrottledReplaceState();
+        if (sequence >= 0) {
+            queueCommand(new HistoryCommand("back", sequence));
+        } else if (lastAddress != null) {
+            queueState("replaceState", lastState, lastAddress);
+        }
+    }
+
+    /**
+     * Tells whether the current request is handling a history move made by
+     * the browser, i.e. the user went back or forward. Only the
+     * {@link PopStateListener PopStateListeners}, and whatever they call, can
+     * see <code>true</code>.
+     *
+     * @return <code>true</code> if a <code>popstate</code> is being handled
+     */
+    public boolean isPopStateInProgress() {
+        return popStateInProgress;
+    }
+
+    /**
+     * Sets the title of the document, i.e. the browser tab and the current
+     * history entry.
+     * <p>
+     * If a {@link #pushState(JsonObject, String) pushState} or
+     * {@link #replaceState(JsonObject, String) replaceState} is sent in the
+     * same response, the title travels with it, and the browser applies both
+     * at once, right after changing the entry. Unlike
+     * {@link Page#setTitle(String)}, this never costs a message of its own
+     * when navigating.
+     *
+     * @param title the title, or <code>null</code> to leave the title as it
+     * is
+     */
+    public void setTitle(final String title) {
+        pendingTitle = title;
+        if (title != null) {
+            markAsDirty();
+        }
+    }
+
+    /**
+     * Scrolls the page to an element once the response has been applied. Like
+     * {@link #setTitle(String)}, it travels with a state change that is sent
+     * in the same response.
+     *
+     * @param elementId the id of the element to scroll into view,
+     * <code>""</code> to scroll to the top of the page, or <code>null</code>
+     * not to scroll
+     * @see com.vaadin.ui.Component#setId(String)
+     */
+    public void setScrollTarget(final String elementId) {
+        pendingScrollTarget = elementId;
+        if (elementId != null) {
+            markAsDirty();
+        }
+    }
+
+    /**
+     * Sets whether the extension falls back to the URL fragment in browsers
+     * that don't support the history API. The fallback is enabled by default.
+     * <p>
+     * With the fallback, a pushed address is kept in the fragment, e.g.
+     * <code>"/app/table/1"</code> becomes <code>"#!/app/table/1"</code>, and
+     * the browser's back and forward buttons still produce
+     * {@link PopStateEvent PopStateEvents}, with the pushed address as
+     * {@link PopStateEvent#getAddress()}. Addresses that differ from the page
+     * only by their fragment, like the ones of {@link UriFragmentNavManager},
+     * are used as they are. States are only kept until the page is reloaded.
+     * <p>
+     * Without the fallback, all calls are ignored in such browsers.
+     *
+     * @param fragmentFallback <code>true</code> to fall back to the fragment
+     */
+    public void setFragmentFallback(final boolean fragmentFallback) {
+        if (fragmentFallback != isFragmentFallback()) {
+            getState().setFragmentFallback(fragmentFallback);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the extension falls back to the URL
+     * fragment in browsers that don't support the history API
+     * @see #setFragmentFallback(boolean)
+     */
+    public boolean isFragmentFallback() {
+        return getState(false).isFragmentFallback();
+    }
+
+    /**
+     * @return <code>true</code> if the browser is known not to support the
+     * history API
+     * @see ErrorEvent.Type#UNSUPPORTED
+     */
+    public boolean isHistoryUnsupported() {
+        return unsupported;
     }
 
     /**
@@ -546,6 +1535,9 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
         if (listener == null) {
             throw new IllegalArgumentException("listener may not be null");
         }
+        if (popListeners == null) {
+            popListeners = new ArrayList<PopStateListener>(1);
+        }
         popListeners.add(listener);
     }
 
@@ -557,7 +1549,85 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
      * removed, otherwise <code>false</code>
      */
     public boolean removePopStateListener(final PopStateListener listener) {
-        return popListeners.remove(listener);
+        if (popListeners == null || !popListeners.remove(listener)) {
+            return false;
+        }
+        if (popListeners.isEmpty()) {
+            popListeners = null;
+        }
+        return true;
+    }
+
+    /**
+     * Adds an {@link AsyncPopStateListener}, which is called on the given
+     * executor instead of the request thread.
+     * <p>
+     * The executor can be shared among all UIs, e.g. a thread pool, or an
+     * executor that starts a virtual thread for each task. The events of a
+     * UI are still handled one at a time, in the order they occurred, by all
+     * the listeners of the UI that were added with the same executor, and
+     * their UI changes are applied in the same order. If the user moves on
+     * before an event has been handled, the event is skipped. If the executor
+     * rejects an event, the listener is called on the request thread.
+     * <p>
+     * The executor isn't serialized with the session. If the session is
+     * deserialized, the listener is called on the request thread.
+     *
+     * @param listener the listener to be added
+     * @param executor the executor to call the listener on
+     * @throws IllegalArgumentException if <code>listener</code> or
+     * <code>executor</code> is <code>null</code>
+     */
+    public void addAsyncPopStateListener(final AsyncPopStateListener listener,
+            final Executor executor) throws IllegalArgumentException {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener may not be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor may not be null");
+        }
+        SerialExecutor serialExecutor = null;
+        if (asyncPopListeners == null) {
+            asyncPopListeners = new ArrayList<AsyncRegistration>(1);
+        } else {
+            for (final AsyncRegistration registration : asyncPopListeners) {
+                if (registration.executor != null
+                        && registration.executor.getExecutor() == executor) {
+                    serialExecutor = registration.executor;
+                    break;
+                }
+            }
+        }
+        if (serialExecutor == null) {
+            serialExecutor = new SerialExecutor(executor);
+        }
+        asyncPopListeners.add(new AsyncRegistration(listener, serialExecutor));
+    }
+
+    /**
+     * Removes an {@link AsyncPopStateListener}. Events that are already being
+     * handled still are.
+     *
+     * @param listener the listener to be removed
+     * @return <code>true</code> if the listener was successfully found and
+     * removed, otherwise <code>false</code>
+     */
+    public boolean removeAsyncPopStateListener(
+            final AsyncPopStateListener listener) {
+        if (asyncPopListeners == null) {
+            return false;
+        }
+        for (final Iterator<AsyncRegistration> i = asyncPopListeners
+                .iterator(); i.hasNext();) {
+            if (i.next().listener == listener) {
+                i.remove();
+                if (asyncPopListeners.isEmpty()) {
+                    asyncPopListeners = null;
+                }
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -572,6 +1642,9 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
         if (listener == null) {
             throw new IllegalArgumentException("listener may not be null");
         }
+        if (errorListeners == null) {
+            errorListeners = new ArrayList<ErrorListener>(1);
+        }
         errorListeners.add(listener);
     }
 
@@ -583,56 +1656,359 @@ public class HistoryExtension extends AbstractJavaScriptExtension {
      * removed, otherwise <code>false</code>
      */
     public boolean removeErrorListener(final ErrorListener listener) {
-        return errorListeners.remove(listener);
+        if (errorListeners == null || !errorListeners.remove(listener)) {
+            return false;
+        }
+        if (errorListeners.isEmpty()) {
+            errorListeners = null;
+        }
+        return true;
+    }
+
+    /**
+     * Queues a push or replace and notifies the listeners, unless the command
+     * wouldn't change anything, i.e. both the address and the state are the
+     * same as the current ones. Such commands never reach the client.
+     */
+    private void applyState(final String name, final JsonObject state,
+            final Map<String, String> sourceMap, final String url) {
+        final HistoryMetrics metrics = getMetrics();
+        metrics.count("pushState".equals(name)
+                ? HistoryMetrics.Operation.PUSH_STATE
+                : HistoryMetrics.Operation.REPLACE_STATE);
+        final String address = url != null ? url : lastAddress;
+        final String normalizedAddress = address != null ? Addresses
+                .normalize(address) : null;
+        final int stateHash = JsonStates.hash(state);
+        final boolean optimistic = optimisticSequence >= 0;
+        if (optimistic && "pushState".equals(name)) {
+            optimisticConfirmed = true;
+        }
+        if (isCurrent(normalizedAddress, state, stateHash)) {
+            metrics.count(HistoryMetrics.Operation.DEDUPLICATED);
+            return;
+        }
+
+        if (optimistic) {
+            // the browser already has an entry for this navigation, correct it
+            final HistoryCommand correction = new HistoryCommand(
+                    "replaceState", state, url);
+            correction.sequence = optimisticSequence;
+            queueCommand(correction);
+        } else if (browserNavigation) {
+            /*
+             * the browser already has an entry for this navigation, but the
+             * address differs, e.g. by the query that NavManager keeps
+             */
+            queueState("replaceState", state, url);
+        } else {
+            queueState(name, state, url);
+        }
+        setCurrent(address, normalizedAddress, state, stateHash);
+        dispatch(state, sourceMap, address, false);
     }
 
     private void fireListeners(final JsonObject state, final String address) {
-        // this is assumes changing addresses!
-        if (address.equals(lastAddress)) {
+        fireListeners(state, address, false);
+    }
+
+    private void fireListeners(final JsonObject state, final String address,
+            final boolean stateEvicted) {
+        final String normalizedAddress = Addresses.normalize(address);
+        final int stateHash = JsonStates.hash(state);
+        if (isCurrent(normalizedAddress, state, stateHash)) {
+            getMetrics().count(HistoryMetrics.Operation.DEDUPLICATED);
             return;
         }
+        setCurrent(address, normalizedAddress, state, stateHash);
+        popStateInProgress = true;
+        try {
+            dispatch(state, null, address, stateEvicted);
+        } finally {
+            popStateInProgress = false;
+        }
+    }
+
+    /**
+     * The hash rules out most changes cheaply, and the states are only
+     * compared when it matches. A state object that is given again can't be
+     * compared with itself, since it may have been modified in between.
+     */
+    private boolean isCurrent(final String normalizedAddress,
+            final JsonObject state, final int stateHash) {
+        return lastStateKnown && normalizedAddress != null
+                && stateHash == lastStateHash
+                && Addresses.sameEntry(normalizedAddress,
+                        lastNormalizedAddress)
+                && (state == null || state != lastState)
+                && JsonStates.equal(state, lastState);
+    }
+
+    private void setCurrent(final String address,
+            final String normalizedAddress, final JsonObject state,
+            final int stateHash) {
         lastAddress = address;
-        final PopStateEvent event = new PopStateEvent(state, address);
-        for (final PopStateListener listener : popListeners) {
-            listener.popState(event);
+        lastNormalizedAddress = normalizedAddress;
+        lastState = state;
+        lastStateHash = stateHash;
+        lastStateKnown = true;
+    }
+
+    private void dispatch(final JsonObject state,
+            final Map<String, String> sourceMap, final String address,
+            final boolean stateEvicted) {
+        if (popListeners == null && asyncPopListeners == null) {
+            return;
+        }
+        final PopStateEvent event = new PopStateEvent(state, sourceMap,
+                address, stateEvicted);
+        if (popListeners != null) {
+            final long start = System.nanoTime();
+            for (final PopStateListener listener : popListeners) {
+                listener.popState(event);
+            }
+            getMetrics().listenerTime(System.nanoTime() - start);
+        }
+        if (asyncPopListeners != null) {
+            for (final AsyncRegistration registration : asyncPopListeners) {
+                registration.dispatch(getUI(), event);
+            }
         }
     }
 
     private void fireError(final ErrorEvent e) {
-        for (final ErrorListener listener : errorListeners) {
-            listener.onError(e);
+        fireErrorListeners(e);
+
+        if (e.getType() == Type.UNSUPPORTED) {
+            rememberUnsupported(getSession());
+            if (!unsupported) {
+                unsupported = true;
+                getState().setHistoryUnsupported(true);
+                if (stats != null) {
+                    stats.extensionUnsupported();
+                }
+            }
+            if (isFragmentFallback()) {
+                return;
+            }
         }
 
         if (!e.isCancelled()) {
             throw new RuntimeException(e.getErrorName() + ": " + e.getMessage());
         }
+    }
 
-        if (e.getType() == Type.UNSUPPORTED) {
-            unsupported = true;
+    private void fireErrorListeners(final ErrorEvent e) {
+        getMetrics().error(e.getType());
+        if (errorListeners != null) {
+            for (final ErrorListener listener : errorListeners) {
+                listener.onError(e);
+            }
+        }
+    }
+
+    private static boolean isKnownUnsupported(final VaadinSession session) {
+        return session != null
+                && session.getAttribute(UNSUPPORTED_ATTRIBUTE) != null;
+    }
+
+    private static void rememberUnsupported(final VaadinSession session) {
+        if (session != null) {
+            session.setAttribute(UNSUPPORTED_ATTRIBUTE, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Queues a <code>pushState</code> or <code>replaceState</code> command.
+     * <p>
+     * A <code>replaceState</code> that directly follows another
+     * <code>replaceState</code> overrides it, and a <code>replaceState</code>
+     * that directly follows a <code>pushState</code> is folded into that
+     * <code>pushState</code>. Either way, only the net result will reach the
+     * browser.
+     */
+    private void queueState(final String name, final JsonObject state,
+            final String url) {
+        if ("replaceState".equals(name) && pendingCommands != null) {
+            final HistoryCommand last = pendingCommands.get(pendingCommands
+                    .size() - 1);
+            if (last.isStateCommand() && last.sequence < 0) {
+                last.state = state;
+                if (url != null) {
+                    last.url = url;
+                }
+                return;
+            }
         }
+        queueCommand(new HistoryCommand(name, state, url));
+    }
+
+    private void queueCommand(final HistoryCommand command) {
+        if (pendingCommands == null) {
+            pendingCommands = new ArrayList<HistoryCommand>(2);
+        }
+        pendingCommands.add(command);
+        markAsDirty();
+    }
+
+    @Override
+    public void beforeClientResponse(final boolean initial) {
+        super.beforeClientResponse(initial);
+        if (knownUnsupportedPending) {
+            knownUnsupportedPending = false;
+            // nothing to throw at: nobody called the server
+            fireErrorListeners(new ErrorEvent(Type.UNSUPPORTED,
+                    "Unsupported Browser",
+                    "history.pushState and/or history.replaceState not "
+                            + "supported by the user's browser, "
+                            + "as detected earlier in the session",
+                    lastAddress != null ? lastAddress : ""));
+        }
+        if (throttledPending) {
+            if (System.nanoTime() - throttleWindowStart
+                    >= throttleIntervalNanos) {
+                // the tail of a burst, its window is over
+                flushThrottledReplaceState();
+            } else {
+                keepDirtyForThrottledTail();
+            }
+        }
+        attachDecoration();
+        if (pendingCommands != null) {
+            final HistoryMetrics metrics = getMetrics();
+            final StateCodec codec = getStateCodec();
+            for (final HistoryCommand command : pendingCommands) {
+                final Object[] arguments = command.getArguments(codec,
+                        stateStore);
+                if (metrics != HistoryMetrics.NOOP
+                        && command.isStateCommand()
+                        && isMeasurable((JsonValue) arguments[0])) {
+                    metrics.payload(JsonStates
+                            .jsonSize((JsonValue) arguments[0]));
+                }
+                callFunction(command.name, arguments);
+            }
+        }
+        if (pendingTitle != null || pendingScrollTarget != null) {
+            // the title and scrolling don't need the history API
+            super.callFunction("decorate", pendingTitle, pendingScrollTarget);
+            pendingTitle = null;
+            pendingScrollTarget = null;
+        }
+        pendingCommands = null;
+    }
+
+    /**
+     * Keeps the extension dirty while a throttled state is held back, so that
+     * the next response asks for it again. The framework cleans all
+     * connectors once the current response is written, so the extension is
+     * marked again when the session is unlocked. With server push, that
+     * would push right away, again and again until the window is over, so
+     * the tail then waits for something else to dirty the extension.
+     */
+    private void keepDirtyForThrottledTail() {
+        final UI ui = getUI();
+        if (ui == null || ui.getSession() == null) {
+            // nothing cleans the connectors of a UI without a session
+            markAsDirty();
+            return;
+        }
+        if (throttledTailMarkQueued
+                || ui.getPushConfiguration().getPushMode().isEnabled()) {
+            return;
+        }
+        throttledTailMarkQueued = true;
+        ui.access(new Runnable() {
+            @Override
+            public void run() {
+                throttledTailMarkQueued = false;
+                if (throttledPending) {
+                    markAsDirty();
+                }
+            }
+        });
+    }
+
+    /**
+     * Tells whether there is an encoded state to measure, i.e. the entry has
+     * a state at all.
+     */
+    private static boolean isMeasurable(final JsonValue encoded) {
+        return encoded != null && encoded.getType() != JsonType.NULL;
+    }
+
+    /**
+     * Moves the title and the scroll target of this response to the last
+     * queued command, if it's a state command that will reach the browser.
+     */
+    private void attachDecoration() {
+        if (pendingCommands == null || unsupported && !isFragmentFallback()
+                || pendingTitle == null && pendingScrollTarget == null) {
+            return;
+        }
+        final HistoryCommand last = pendingCommands.get(pendingCommands
+                .size() - 1);
+        if (last.isStateCommand()) {
+            last.title = pendingTitle;
+            last.scrollTarget = pendingScrollTarget;
+            pendingTitle = null;
+            pendingScrollTarget = null;
+        }
+    }
+
+    @Override
+    public void detach() {
+        if (stats != null) {
+            stats.extensionDetached(unsupported);
+            stats = null;
+        }
+        pendingCommands = null;
+        pendingTitle = null;
+        pendingScrollTarget = null;
+        super.detach();
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        lastNormalizedAddress = lastAddress != null ? Addresses
+                .normalize(lastAddress) : null;
+        // lastState isn't serialized
+        lastStateKnown = false;
+        optimisticSequence = -1;
     }
 
     @Override
     protected void callFunction(final String name, final Object... arguments) {
         /*
          * This method is overridden to stop all client-side calls if the API is
-         * not supported.
+         * not supported, and there is no fallback.
          * 
          * Otherwise we'd get a lot of unnecessary function calls that will
          * simply end up failing.
          */
 
-        if (!unsupported) {
+        if (!unsupported || isFragmentFallback()) {
             super.callFunction(name, arguments);
-        } else {
+        } else if (!unsupportedLogged) {
+            unsupportedLogged = true;
             Logger.getLogger(getClass().getName()).warning(
                     "PushState is unsupported by the client "
-                    + "browser. Ignoring RPC call for "
-                    + getClass().getSimpleName() + "." + name);
+                    + "browser. Ignoring RPC calls for "
+                    + getClass().getSimpleName() + ", starting with " + name);
         }
     }
 
-    public NavigationStateManager createNavigationStateManager(
+    /**
+     * Creates a {@link NavigationStateManager} that keeps the navigation state
+     * in the path of the URL, after <code>urlRoot</code>, and uses this
+     * extension to change it.
+     *
+     * @param urlRoot the path that all navigation states are under, usually
+     * the context path of the servlet
+     * @return the state manager, for a {@link Navigator}
+     */
+    public NavManager createNavigationStateManager(
             final String urlRoot) {
         return new NavManager(this, urlRoot);
     }
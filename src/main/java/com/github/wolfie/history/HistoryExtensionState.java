@@ -0,0 +1,37 @@
+package com.github.wolfie.history;
+
+import com.vaadin.shared.JavaScriptExtensionState;
+
+public class HistoryExtensionState extends JavaScriptExtensionState {
+    private int popStateCoalesceMillis = 50;
+    private boolean historyUnsupported = false;
+    private boolean fragmentFallback = true;
+
+    public HistoryExtensionState() {
+    }
+
+    public int getPopStateCoalesceMillis() {
+        return popStateCoalesceMillis;
+    }
+
+    public void setPopStateCoalesceMillis(int popStateCoalesceMillis) {
+        this.popStateCoalesceMillis = popStateCoalesceMillis;
+    }
+
+    public boolean isHistoryUnsupported() {
+        return historyUnsupported;
+    }
+
+    public void setHistoryUnsupported(boolean historyUnsupported) {
+        this.historyUnsupported = historyUnsupported;
+    }
+
+    public boolean isFragmentFallback() {
+        return fragmentFallback;
+    }
+
+    public void setFragmentFallback(boolean fragmentFallback) {
+        this.fragmentFallback = fragmentFallback;
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.github.wolfie.history;
+
+import com.github.wolfie.history.HistoryExtension.ErrorEvent;
+
+/**
+ * Receives measurements from {@link HistoryExtension} and its navigation state
+ * managers.
+ * <p>
+ * Implementations are called on request threads, usually while the session is
+ * locked, and may be shared by all sessions. They need to be thread-safe, and
+ * should return quickly without allocating.
+ *
+ * @see StripedHistoryMetrics
+ * @see HistoryExtension#setMetrics(HistoryMetrics)
+ * @see HistoryExtension#setDefaultMetrics(HistoryMetrics)
+ */
+public interface HistoryMetrics {
+
+    /**
+     * The operations that are counted.
+     */
+    public enum Operation {
+        /** A <code>pushState</code> call */
+        PUSH_STATE,
+        /** A <code>replaceState</code> call */
+        REPLACE_STATE,
+        /** A <code>back</code> call */
+        BACK,
+        /** A <code>forward</code> call */
+        FORWARD,
+        /** A <code>go</code> call */
+        GO,
+        /** A <code>popstate</code> event from the browser */
+        POP_STATE,
+        /**
+         * A push, replace or popstate that was dropped because it wouldn't
+         * have changed the current entry, or had been superseded
+         */
+        DEDUPLICATED
+    }
+
+    /**
+     * Metrics that ignore everything. This is the default.
+     */
+    HistoryMetrics NOOP = new HistoryMetrics() {
+        @Override
+        public void count(final Operation operation) {
+        }
+
+        @Override
+        public void error(final ErrorEvent.Type type) {
+        }
+
+        @Override
+        public void payload(final int bytes) {
+        }
+
+        @Override
+        public void listenerTime(final long nanos) {
+        }
+
+        @Override
+        public void navigation(final String state) {
+        }
+
+        @Override
+        public void navigationTime(final String state, final long nanos) {
+        }
+    };
+
+    /**
+     * @param operation the operation that took place
+     */
+    void count(Operation operation);
+
+    /**
+     * @param type the type of an error reported by the browser
+     */
+    void error(ErrorEvent.Type type);
+
+    /**
+     * Records the size of a state that was sent to or received from the
+     * browser, in the form that its {@link StateCodec} encoded it. The size is
+     * computed without serializing the state.
+     *
+     * @param bytes the size of the encoded state as JSON in UTF-8, in bytes
+     */
+    void payload(int bytes);
+
+    /**
+     * Records the time spent in the {@link HistoryExtension.PopStateListener
+     * PopStateListeners} for one event.
+     *
+     * @param nanos the elapsed time in nanoseconds
+     */
+    void listenerTime(long nanos);
+
+    /**
+     * Records a change of the navigation state, whether the application
+     * navigated or the browser moved in its history.
+     *
+     * @param state the new navigation state
+     */
+    void navigation(String state);
+
+    /**
+     * Records the time spent in {@link com.vaadin.navigator.Navigator#navigateTo
+     * Navigator.navigateTo} after the browser moved in its history.
+     *
+     * @param state the navigation state that was navigated to
+     * @param nanos the elapsed time in nanoseconds
+     */
+    void navigationTime(String state, long nanos);
+}
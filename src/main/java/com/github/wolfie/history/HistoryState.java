@@ -0,0 +1,224 @@
+package com.github.wolfie.history;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
+
+/**
+ * A read-only view over the state object of a history entry, with typed
+ * getters.
+ * <p>
+ * The view reads straight from the underlying state, so no copies are made.
+ * None of the getters throw: a missing key, a <code>null</code> value or a
+ * value that can't be converted to the requested type all result in the given
+ * default value.
+ * <p>
+ * Numbers that were pushed as strings (as with
+ * {@link HistoryExtension#pushState(Map, String)}) are parsed, so
+ * <code>getInt("id", -1)</code> works for both <code>{"id": 5}</code> and
+ * <code>{"id": "5"}</code>.
+ *
+ * @see HistoryExtension.PopStateEvent#getState()
+ */
+@SuppressWarnings("serial")
+public final class HistoryState implements Serializable {
+
+    private final JsonObject json;
+    private final Map<String, String> map;
+
+    HistoryState(final JsonObject json, final Map<String, String> map) {
+        this.json = json;
+        this.map = map;
+    }
+
+    /**
+     * @return <code>true</code> if there is no state object at all, or it has
+     * no keys
+     */
+    public boolean isEmpty() {
+        if (map != null) {
+            return map.isEmpty();
+        }
+        return json == null || json.keys().length == 0;
+    }
+
+    /**
+     * @param key the key to look for
+     * @return <code>true</code> if the state has a value for the key, even if
+     * it is <code>null</code>
+     */
+    public boolean has(final String key) {
+        if (map != null) {
+            return map.containsKey(key);
+        }
+        return json != null && json.hasKey(key);
+    }
+
+    /**
+     * Returns a value as a string. Numbers and booleans are converted into
+     * their string form, objects and arrays into JSON.
+     *
+     * @param key the key of the value
+     * @param defaultValue the value to return if there is no value
+     * @return the value, or <code>defaultValue</code>
+     */
+    public String getString(final String key, final String defaultValue) {
+        if (map != null) {
+            final String value = map.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        final JsonValue value = getJsonValue(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        switch (value.getType()) {
+        case STRING:
+            return value.asString();
+        case NUMBER:
+            final double number = value.asNumber();
+            if (number == (long) number) {
+                return Long.toString((long) number);
+            }
+            return Double.toString(number);
+        case BOOLEAN:
+            return String.valueOf(value.asBoolean());
+        case NULL:
+            return defaultValue;
+        default:
+            return value.toJson();
+        }
+    }
+
+    /**
+     * @param key the key of the value
+     * @param defaultValue the value to return if there is no integer value
+     * @return the value, or <code>defaultValue</code>
+     */
+    public int getInt(final String key, final int defaultValue) {
+        final long value = getLong(key, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    /**
+     * @param key the key of the value
+     * @param defaultValue the value to return if there is no integer value
+     * @return the value, or <code>defaultValue</code>
+     */
+    public long getLong(final String key, final long defaultValue) {
+        if (map != null) {
+            return parseLong(map.get(key), defaultValue);
+        }
+
+        final JsonValue value = getJsonValue(key);
+        if (value == null) {
+            return defaultValue;
+        } else if (value.getType() == JsonType.NUMBER) {
+            final double number = value.asNumber();
+            return number == (long) number ? (long) number : defaultValue;
+        } else if (value.getType() == JsonType.STRING) {
+            return parseLong(value.asString(), defaultValue);
+        } else {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key the key of the value
+     * @param defaultValue the value to return if there is no numeric value
+     * @return the value, or <code>defaultValue</code>
+     */
+    public double getDouble(final String key, final double defaultValue) {
+        final String string;
+        if (map != null) {
+            string = map.get(key);
+        } else {
+            final JsonValue value = getJsonValue(key);
+            if (value != null && value.getType() == JsonType.NUMBER) {
+                return value.asNumber();
+            }
+            string = value != null && value.getType() == JsonType.STRING ? value
+                    .asString() : null;
+        }
+
+        if (string == null || string.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(string);
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns a boolean value. The strings <code>"true"</code> and
+     * <code>"false"</code> are accepted as well.
+     *
+     * @param key the key of the value
+     * @param defaultValue the value to return if there is no boolean value
+     * @return the value, or <code>defaultValue</code>
+     */
+    public boolean getBoolean(final String key, final boolean defaultValue) {
+        final String string;
+        if (map != null) {
+            string = map.get(key);
+        } else {
+            final JsonValue value = getJsonValue(key);
+            if (value != null && value.getType() == JsonType.BOOLEAN) {
+                return value.asBoolean();
+            }
+            string = value != null && value.getType() == JsonType.STRING ? value
+                    .asString() : null;
+        }
+
+        if ("true".equalsIgnoreCase(string)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(string)) {
+            return false;
+        } else {
+            return defaultValue;
+        }
+    }
+
+    private JsonValue getJsonValue(final String key) {
+        return json != null ? json.get(key) : null;
+    }
+
+    /**
+     * Parses a decimal long without going through exceptions for malformed
+     * input.
+     */
+    private static long parseLong(final String string, final long defaultValue) {
+        if (string == null || string.isEmpty()) {
+            return defaultValue;
+        }
+
+        final boolean negative = string.charAt(0) == '-';
+        int i = negative || string.charAt(0) == '+' ? 1 : 0;
+        if (i == string.length()) {
+            return defaultValue;
+        }
+
+        // accumulate negatively, since Long.MIN_VALUE has no positive pair
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (; i < string.length(); i++) {
+            final int digit = string.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            if (result < (limit + digit) / 10) {
+                return defaultValue;
+            }
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+}
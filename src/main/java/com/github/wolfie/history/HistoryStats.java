@@ -0,0 +1,403 @@
+package com.github.wolfie.history;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.vaadin.server.ServiceDestroyEvent;
+import com.vaadin.server.ServiceDestroyListener;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinServletService;
+
+/**
+ * {@link HistoryMetrics} for a whole {@link VaadinService}, published as a JMX
+ * MBean.
+ * <p>
+ * Register the statistics once, when the servlet starts:
+ *
+ * <pre>
+ * protected void servletInitialized() throws ServletException {
+ *     super.servletInitialized();
+ *     HistoryStats.register(getService());
+ * }
+ * </pre>
+ *
+ * Every {@link HistoryExtension} of the service that has no
+ * {@link HistoryExtension#setMetrics(HistoryMetrics) metrics of its own} then
+ * reports to them, and they show up as
+ * <code>com.github.wolfie.history:type=HistoryStats</code> in JMX consoles.
+ * The MBean is unregistered when the service is destroyed.
+ * <p>
+ * All the statistics are kept in atomic variables, so reading them never
+ * blocks the request threads.
+ */
+public class HistoryStats extends StripedHistoryMetrics implements
+        HistoryStatsMBean {
+
+    /**
+     * The maximum number of distinct routes that are counted. Navigations to
+     * routes beyond these are counted under {@link #OTHER_ROUTES}.
+     */
+    private static final int MAX_ROUTES = 1000;
+    private static final String OTHER_ROUTES = "(other)";
+
+    /**
+     * Rates are computed over at least this long, however often they're
+     * read.
+     */
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS
+            .toNanos(10);
+
+    private static final ConcurrentMap<VaadinService, HistoryStats> STATS = new ConcurrentHashMap<VaadinService, HistoryStats>();
+
+    /**
+     * A count at a point in time, for computing rates on read.
+     */
+    private static final class Sample {
+        private final long count;
+        private final long nanos;
+
+        private Sample(final long count, final long nanos) {
+            this.count = count;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * The samples that a rate is computed from: the rate is measured since
+     * <code>start</code>, and <code>next</code> becomes the new start when
+     * the window has passed. Reads don't reset anything, so any number of
+     * consoles see the same rate.
+     */
+    private static final class RateWindow {
+        private final Sample start;
+        private final Sample next;
+
+        private RateWindow(final Sample start, final Sample next) {
+            this.start = start;
+            this.next = next;
+        }
+    }
+
+    /** The navigation count of a route */
+    private static final class Route {
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+
+        private Route(final String name) {
+            this.name = name;
+        }
+    }
+
+    private final AtomicLong activeExtensions = new AtomicLong();
+    private final AtomicLong unsupportedExtensions = new AtomicLong();
+    /**
+     * The counted routes, sorted by name so that a navigation state can be
+     * matched without cutting out its route. Replaced as a whole when a route
+     * is added.
+     */
+    private volatile Route[] routes = new Route[0];
+    private final Route otherRoutes = new Route(OTHER_ROUTES);
+    private final AtomicReference<RateWindow> pushStateWindow;
+    private final AtomicReference<RateWindow> popStateWindow;
+    private volatile int topRouteCount = 10;
+    private ObjectName objectName;
+
+    private HistoryStats() {
+        final Sample start = new Sample(0, System.nanoTime());
+        pushStateWindow = new AtomicReference<RateWindow>(new RateWindow(
+                start, start));
+        popStateWindow = new AtomicReference<RateWindow>(new RateWindow(
+                start, start));
+    }
+
+    /**
+     * Creates the statistics of a service and registers them as an MBean, if
+     * that hasn't been done yet.
+     *
+     * @param service the service
+     * @return the statistics of the service
+     */
+    public static HistoryStats register(final VaadinService service) {
+        final HistoryStats stats = new HistoryStats();
+        final HistoryStats existing = STATS.putIfAbsent(service, stats);
+        if (existing != null) {
+            return existing;
+        }
+
+        stats.registerMBean(service);
+        service.addServiceDestroyListener(new ServiceDestroyListener() {
+            @Override
+            public void serviceDestroy(final ServiceDestroyEvent event) {
+                STATS.remove(service);
+                stats.unregisterMBean();
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * @param service a service
+     * @return the statistics of the service, or <code>null</code> if none have
+     * been {@link #register(VaadinService) registered}
+     */
+    public static HistoryStats get(final VaadinService service) {
+        return service != null ? STATS.get(service) : null;
+    }
+
+    void extensionAttached() {
+        activeExtensions.incrementAndGet();
+    }
+
+    void extensionDetached(final boolean unsupported) {
+        activeExtensions.decrementAndGet();
+        if (unsupported) {
+            unsupportedExtensions.decrementAndGet();
+        }
+    }
+
+    void extensionUnsupported() {
+        unsupportedExtensions.incrementAndGet();
+    }
+
+    @Override
+    public void navigation(final String state) {
+        super.navigation(state);
+        final int length = getRouteLength(state);
+        Route route = findRoute(routes, state, length);
+        if (route == null) {
+            route = addRoute(state, length);
+        }
+        route.count.incrementAndGet();
+    }
+
+    /**
+     * The route of a navigation state is its view name, as far as it can be
+     * known without the views: everything before the first slash.
+     */
+    private static int getRouteLength(final String state) {
+        final int slash = state.indexOf('/');
+        return slash < 0 ? state.length() : slash;
+    }
+
+    /**
+     * Binary search for the route of a navigation state, comparing the first
+     * <code>length</code> characters of the state in place.
+     */
+    private static Route findRoute(final Route[] routes, final String state,
+            final int length) {
+        int low = 0;
+        int high = routes.length - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compare(routes[middle].name, state, length);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return routes[middle];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares a route name to the first <code>length</code> characters of a
+     * navigation state, like {@link String#compareTo(String)} would.
+     */
+    private static int compare(final String name, final String state,
+            final int length) {
+        final int common = Math.min(name.length(), length);
+        for (int i = 0; i < common; i++) {
+            final int difference = name.charAt(i) - state.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return name.length() - length;
+    }
+
+    private synchronized Route addRoute(final String state, final int length) {
+        final Route[] current = routes;
+        final Route existing = findRoute(current, state, length);
+        if (existing != null) {
+            return existing;
+        } else if (current.length >= MAX_ROUTES) {
+            return otherRoutes;
+        }
+
+        final Route route = new Route(state.substring(0, length));
+        int index = 0;
+        while (index < current.length
+                && current[index].name.compareTo(route.name) < 0) {
+            index++;
+        }
+        final Route[] added = new Route[current.length + 1];
+        System.arraycopy(current, 0, added, 0, index);
+        added[index] = route;
+        System.arraycopy(current, index, added, index + 1, current.length
+                - index);
+        routes = added;
+        return route;
+    }
+
+    @Override
+    public long getActiveExtensions() {
+        return activeExtensions.get();
+    }
+
+    @Override
+    public long getUnsupportedExtensions() {
+        return unsupportedExtensions.get();
+    }
+
+    @Override
+    public long getPushStateCount() {
+        return getCount(Operation.PUSH_STATE);
+    }
+
+    @Override
+    public long getPopStateCount() {
+        return getCount(Operation.POP_STATE);
+    }
+
+    @Override
+    public double getPushStateRate() {
+        return rate(pushStateWindow, getPushStateCount());
+    }
+
+    @Override
+    public double getPopStateRate() {
+        return rate(popStateWindow, getPopStateCount());
+    }
+
+    @Override
+    public double getNavigationLatencyP50Millis() {
+        return getNavigationTimes().getPercentileNanos(50) / 1e6;
+    }
+
+    @Override
+    public double getNavigationLatencyP99Millis() {
+        return getNavigationTimes().getPercentileNanos(99) / 1e6;
+    }
+
+    @Override
+    public String[] getTopRoutes() {
+        // snapshot the counts, so that they don't change while sorting
+        final Route[] current = routes;
+        final List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(
+                current.length + 1);
+        for (final Route route : current) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<String, Long>(
+                    route.name, route.count.get()));
+        }
+        if (otherRoutes.count.get() > 0) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<String, Long>(
+                    otherRoutes.name, otherRoutes.count.get()));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(final Map.Entry<String, Long> a,
+                    final Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+
+        final int count = Math.min(topRouteCount, entries.size());
+        final String[] topRoutes = new String[count];
+        for (int i = 0; i < count; i++) {
+            final Map.Entry<String, Long> entry = entries.get(i);
+            topRoutes[i] = entry.getKey() + "=" + entry.getValue();
+        }
+        return topRoutes;
+    }
+
+    @Override
+    public int getTopRouteCount() {
+        return topRouteCount;
+    }
+
+    @Override
+    public void setTopRouteCount(final int count) {
+        topRouteCount = Math.max(0, count);
+    }
+
+    /**
+     * @return the rate since the start of the window, which covers the last
+     * {@link #RATE_WINDOW_NANOS} to twice that, when read regularly
+     */
+    private static double rate(final AtomicReference<RateWindow> windowRef,
+            final long count) {
+        final long now = System.nanoTime();
+        RateWindow window = windowRef.get();
+        if (now - window.next.nanos >= RATE_WINDOW_NANOS) {
+            final RateWindow moved = new RateWindow(window.next, new Sample(
+                    count, now));
+            // if another reader moved it first, theirs is just as good
+            window = windowRef.compareAndSet(window, moved) ? moved
+                    : windowRef.get();
+        }
+        final long elapsed = now - window.start.nanos;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (count - window.start.count) * 1e9 / elapsed;
+    }
+
+    private void registerMBean(final VaadinService service) {
+        try {
+            objectName = new ObjectName(
+                    "com.github.wolfie.history:type=HistoryStats,context="
+                            + ObjectName.quote(getContextName(service)));
+            final MBeanServer server = ManagementFactory
+                    .getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+        } catch (final JMException e) {
+            objectName = null;
+            Logger.getLogger(HistoryStats.class.getName()).log(Level.WARNING,
+                    "Could not register the history statistics MBean", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                        objectName);
+            } catch (final JMException e) {
+                Logger.getLogger(HistoryStats.class.getName()).log(
+                        Level.WARNING,
+                        "Could not unregister the history statistics MBean", e);
+            }
+            objectName = null;
+        }
+    }
+
+    private static String getContextName(final VaadinService service) {
+        if (service instanceof VaadinServletService) {
+            final VaadinServletService servletService = (VaadinServletService) service;
+            final String contextPath = servletService.getServlet()
+                    .getServletContext().getContextPath();
+            return (contextPath.isEmpty() ? "/" : contextPath) + ":"
+                    + servletService.getServlet().getServletName();
+        }
+        return service.getClass().getSimpleName() + "@"
+                + Integer.toHexString(System.identityHashCode(service));
+    }
+}
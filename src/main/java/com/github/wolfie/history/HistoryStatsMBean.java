@@ -0,0 +1,69 @@
+package com.github.wolfie.history;
+
+/**
+ * The JMX view of {@link HistoryStats}.
+ */
+public interface HistoryStatsMBean {
+
+    /**
+     * @return the number of {@link HistoryExtension HistoryExtensions} that
+     * are attached to a UI
+     */
+    long getActiveExtensions();
+
+    /**
+     * @return the number of attached {@link HistoryExtension
+     * HistoryExtensions} whose browser doesn't support the history API
+     */
+    long getUnsupportedExtensions();
+
+    /**
+     * @return the total number of <code>pushState</code> calls
+     */
+    long getPushStateCount();
+
+    /**
+     * @return the total number of <code>popstate</code> events
+     */
+    long getPopStateCount();
+
+    /**
+     * @return <code>pushState</code> calls per second, over the last 10 to 20
+     * seconds
+     */
+    double getPushStateRate();
+
+    /**
+     * @return <code>popstate</code> events per second, over the last 10 to 20
+     * seconds
+     */
+    double getPopStateRate();
+
+    /**
+     * @return the median time from a <code>popstate</code> event to the end
+     * of the navigation, in milliseconds
+     */
+    double getNavigationLatencyP50Millis();
+
+    /**
+     * @return the 99th percentile time from a <code>popstate</code> event to
+     * the end of the navigation, in milliseconds
+     */
+    double getNavigationLatencyP99Millis();
+
+    /**
+     * @return the most navigated routes, most navigated first, as
+     * <code>"route=count"</code>
+     */
+    String[] getTopRoutes();
+
+    /**
+     * @return the number of routes listed in {@link #getTopRoutes()}
+     */
+    int getTopRouteCount();
+
+    /**
+     * @param count the number of routes to list in {@link #getTopRoutes()}
+     */
+    void setTopRouteCount(int count);
+}
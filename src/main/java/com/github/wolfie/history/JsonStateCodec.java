@@ -0,0 +1,22 @@
+package com.github.wolfie.history;
+
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+
+/**
+ * The default {@link StateCodec}. Sends state objects to the browser as plain
+ * JSON objects.
+ */
+@SuppressWarnings("serial")
+public class JsonStateCodec implements StateCodec {
+
+    @Override
+    public JsonValue encode(final JsonObject state) {
+        return state;
+    }
+
+    @Override
+    public JsonObject decode(final JsonValue encoded) {
+        return encoded instanceof JsonObject ? (JsonObject) encoded : null;
+    }
+}
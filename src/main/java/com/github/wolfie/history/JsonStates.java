@@ -0,0 +1,259 @@
+package com.github.wolfie.history;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+
+/**
+ * Converts plain Java state objects directly into elemental JSON, without
+ * going through an intermediate JSON string.
+ */
+final class JsonStates {
+
+    private JsonStates() {
+    }
+
+    /**
+     * Converts a state map into a {@link JsonObject}.
+     *
+     * @param map the state map, may be <code>null</code>
+     * @return the map as JSON, or <code>null</code> if <code>map</code> was
+     * <code>null</code>
+     */
+    static JsonObject toJsonObject(final Map<?, ?> map) {
+        if (map == null) {
+            return null;
+        }
+        final JsonObject json = Json.createObject();
+        for (final Map.Entry<?, ?> entry : map.entrySet()) {
+            json.put(String.valueOf(entry.getKey()),
+                    toJsonValue(entry.getValue()));
+        }
+        return json;
+    }
+
+    /**
+     * Computes a hash code for a state, without serializing it. Equal states
+     * have equal hashes, regardless of the order of their keys. Different
+     * states may still share a hash, so a match needs to be confirmed with
+     * {@link #equal(JsonValue, JsonValue)}.
+     *
+     * @param value the state, may be <code>null</code>
+     * @return the hash code. <code>0</code> for <code>null</code>.
+     */
+    static int hash(final JsonValue value) {
+        if (value == null) {
+            return 0;
+        }
+        switch (value.getType()) {
+        case OBJECT:
+            final JsonObject object = (JsonObject) value;
+            int objectHash = 1;
+            for (final String key : object.keys()) {
+                // mixed per entry, so that swapping values changes the sum
+                objectHash += mix(31 * key.hashCode() + hash(object.get(key)));
+            }
+            return objectHash;
+        case ARRAY:
+            final JsonArray array = (JsonArray) value;
+            int arrayHash = 2;
+            for (int i = 0; i < array.length(); i++) {
+                arrayHash = 31 * arrayHash + hash(array.get(i));
+            }
+            return arrayHash;
+        case STRING:
+            return value.asString().hashCode();
+        case NUMBER:
+            final long bits = Double.doubleToLongBits(value.asNumber());
+            return mix((int) (bits ^ bits >>> 32));
+        case BOOLEAN:
+            return value.asBoolean() ? 1231 : 1237;
+        default:
+            return 3;
+        }
+    }
+
+    /**
+     * Compares two states, without serializing them. Objects are equal if
+     * they have the same keys with equal values, in any order.
+     *
+     * @param a a state, may be <code>null</code>
+     * @param b another state, may be <code>null</code>
+     * @return <code>true</code> if the states are equal
+     */
+    static boolean equal(final JsonValue a, final JsonValue b) {
+        if (a == b) {
+            return true;
+        } else if (a == null || b == null || a.getType() != b.getType()) {
+            return false;
+        }
+        switch (a.getType()) {
+        case OBJECT:
+            final JsonObject objectA = (JsonObject) a;
+            final JsonObject objectB = (JsonObject) b;
+            final String[] keys = objectA.keys();
+            if (keys.length != objectB.keys().length) {
+                return false;
+            }
+            for (final String key : keys) {
+                if (!objectB.hasKey(key)
+                        || !equal(objectA.get(key), objectB.get(key))) {
+                    return false;
+                }
+            }
+            return true;
+        case ARRAY:
+            final JsonArray arrayA = (JsonArray) a;
+            final JsonArray arrayB = (JsonArray) b;
+            if (arrayA.length() != arrayB.length()) {
+                return false;
+            }
+            for (int i = 0; i < arrayA.length(); i++) {
+                if (!equal(arrayA.get(i), arrayB.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        case STRING:
+            return a.asString().equals(b.asString());
+        case NUMBER:
+            return Double.doubleToLongBits(a.asNumber()) == Double
+                    .doubleToLongBits(b.asNumber());
+        case BOOLEAN:
+            return a.asBoolean() == b.asBoolean();
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Computes the size of a state as JSON in UTF-8, i.e. about what it costs
+     * on the wire, without serializing it.
+     *
+     * @param value the state, may be <code>null</code>
+     * @return the size in bytes. <code>4</code> for <code>null</code>.
+     */
+    static int jsonSize(final JsonValue value) {
+        if (value == null) {
+            return 4;
+        }
+        switch (value.getType()) {
+        case OBJECT:
+            final JsonObject object = (JsonObject) value;
+            final String[] keys = object.keys();
+            // braces, and a colon and a comma per entry but the last
+            int objectSize = keys.length > 0 ? 2 * keys.length + 1 : 2;
+            for (final String key : keys) {
+                objectSize += stringSize(key) + jsonSize(object.get(key));
+            }
+            return objectSize;
+        case ARRAY:
+            final JsonArray array = (JsonArray) value;
+            final int length = array.length();
+            // brackets, and a comma per item but the last
+            int arraySize = length > 0 ? length + 1 : 2;
+            for (int i = 0; i < length; i++) {
+                arraySize += jsonSize(array.get(i));
+            }
+            return arraySize;
+        case STRING:
+            return stringSize(value.asString());
+        case NUMBER:
+            return numberSize(value.asNumber());
+        case BOOLEAN:
+            return value.asBoolean() ? 4 : 5;
+        default:
+            return 4;
+        }
+    }
+
+    private static int stringSize(final String string) {
+        int size = 2;
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c == '"' || c == '\\' || c == '\b' || c == '\f' || c == '\n'
+                    || c == '\r' || c == '\t') {
+                size += 2;
+            } else if (Character.isISOControl(c)) {
+                // escaped as six characters
+                size += 6;
+            } else if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isSurrogate(c)) {
+                // a pair makes four bytes
+                size += 2;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    private static int numberSize(final double number) {
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            // written as null
+            return 4;
+        }
+        if (number == (long) number && Math.abs(number) < 1e7) {
+            // written without a fraction, and not in scientific notation
+            long rest = Math.abs((long) number);
+            int size = number < 0 || 1 / number < 0 ? 2 : 1;
+            while (rest >= 10) {
+                rest /= 10;
+                size++;
+            }
+            return size;
+        }
+        // rare in states, worth the string
+        return String.valueOf(number).length();
+    }
+
+    /** The finalizer of MurmurHash3, spreads every bit over the whole hash */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static JsonValue toJsonValue(final Object value) {
+        if (value == null) {
+            return Json.createNull();
+        } else if (value instanceof String) {
+            return Json.create((String) value);
+        } else if (value instanceof Number) {
+            return Json.create(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return Json.create(((Boolean) value).booleanValue());
+        } else if (value instanceof JsonValue) {
+            return (JsonValue) value;
+        } else if (value instanceof Map) {
+            return toJsonObject((Map<?, ?>) value);
+        } else if (value instanceof Collection) {
+            final JsonArray array = Json.createArray();
+            int i = 0;
+            for (final Object item : (Collection<?>) value) {
+                array.set(i++, toJsonValue(item));
+            }
+            return array;
+        } else if (value.getClass().isArray()) {
+            final JsonArray array = Json.createArray();
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                array.set(i, toJsonValue(Array.get(value, i)));
+            }
+            return array;
+        } else {
+            return Json.create(value.toString());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.github.wolfie.history;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -12,16 +13,40 @@ import com.vaadin.ui.UI;
 
 /**
  * Stores state in URL path, e.g. "host:port/viewname/some_state" 
+ * <p>
+ * The query string of the URL is kept over navigations, and can be changed
+ * one parameter at a time without navigating, e.g. for the filters and the
+ * paging of a view:
+ *
+ * <pre>
+ * NavManager navManager = history.createNavigationStateManager(contextPath);
+ * ...
+ * navManager.setParameter(&quot;page&quot;, &quot;3&quot;, false);
+ * navManager.setParameterRange(&quot;price&quot;, &quot;10&quot;, &quot;50&quot;, true);
+ * </pre>
+ *
+ * @see QueryParameters
  */
-final class NavManager implements NavigationStateManager,
+public final class NavManager implements NavigationStateManager,
         HistoryExtension.PopStateListener {
 
+	private static final Map EMPTY_STATE_OBJECT = null;
+
 	private final HistoryExtension historyExtension;
-	private final Map emptyStateObject = null;
     private Navigator navigator;
     private String state = null;
     private final String urlRoot;
+    /** The constant part of every pushed URL, derived from urlRoot */
+    private transient String urlPrefix;
+    /** the encoded query string, or <code>null</code> if there is none */
     private String query;
+    /** the parsed query, not serialized */
+    private transient QueryParameters parameters;
+    /**
+     * <code>true</code> while this pushes or replaces the URL, so that the
+     * extension's dispatch of it doesn't navigate again
+     */
+    private transient boolean updatingUrl = false;
 
     public NavManager(HistoryExtension historyExtension, final String urlRoot) {
         this.historyExtension = historyExtension;
@@ -40,10 +65,151 @@ final class NavManager implements NavigationStateManager,
     @Override
     public void setState(final String state) {
         this.state = state;
-        final String pushStateUrl = urlRoot + "/" + state
-                + (query != null ? "?" + query : "");
+        historyExtension.getMetrics().navigation(state);
+        updatingUrl = true;
+        try {
+            historyExtension.pushState(EMPTY_STATE_OBJECT, buildUrl(state));
+        } finally {
+            updatingUrl = false;
+        }
+    }
+
+    /**
+     * @return a copy of the parameters of the current URL
+     */
+    public QueryParameters getParameters() {
+        return new QueryParameters(getParsedParameters());
+    }
+
+    /**
+     * @param name the name of a query parameter
+     * @return the decoded value of the parameter in the current URL, or
+     * <code>null</code> if there is no such parameter
+     * @see QueryParameters#get(String, String)
+     */
+    public String getParameter(final String name) {
+        return getParsedParameters().get(name, null);
+    }
+
+    /**
+     * Changes a query parameter of the current URL, without navigating.
+     *
+     * @param name the name of the parameter
+     * @param value the value, or <code>null</code> to remove the parameter
+     * @param push <code>true</code> to add a new entry to the browser's
+     * history, <code>false</code> to replace the current one
+     * @see QueryParameters#set(String, String)
+     */
+    public void setParameter(final String name, final String value,
+            final boolean push) {
+        if (getParsedParameters().set(name, value)) {
+            queryChanged(push);
+        }
+    }
 
-        this.historyExtension.pushState(emptyStateObject, pushStateUrl);
+    /**
+     * Sets a query parameter of the current URL to a list of values, without
+     * navigating.
+     *
+     * @param name the name of the parameter
+     * @param values the values, or <code>null</code> to remove the parameter
+     * @param push <code>true</code> to add a new entry to the browser's
+     * history, <code>false</code> to replace the current one
+     * @see QueryParameters#setList(String, Collection)
+     */
+    public void setParameterList(final String name,
+            final Collection<String> values, final boolean push) {
+        if (getParsedParameters().setList(name, values)) {
+            queryChanged(push);
+        }
+    }
+
+    /**
+     * Sets a query parameter of the current URL to a range, without
+     * navigating.
+     *
+     * @param name the name of the parameter
+     * @param from the lower bound, or <code>null</code> if there is none
+     * @param to the upper bound, or <code>null</code> if there is none
+     * @param push <code>true</code> to add a new entry to the browser's
+     * history, <code>false</code> to replace the current one
+     * @see QueryParameters#setRange(String, String, String)
+     */
+    public void setParameterRange(final String name, final String from,
+            final String to, final boolean push) {
+        if (getParsedParameters().setRange(name, from, to)) {
+            queryChanged(push);
+        }
+    }
+
+    /**
+     * Removes a query parameter from the current URL, without navigating.
+     *
+     * @param name the name of the parameter
+     * @param push <code>true</code> to add a new entry to the browser's
+     * history, <code>false</code> to replace the current one
+     */
+    public void removeParameter(final String name, final boolean push) {
+        if (getParsedParameters().remove(name)) {
+            queryChanged(push);
+        }
+    }
+
+    /**
+     * Replaces all the query parameters of the current URL, without
+     * navigating.
+     *
+     * @param parameters the new parameters
+     * @param push <code>true</code> to add a new entry to the browser's
+     * history, <code>false</code> to replace the current one
+     */
+    public void setParameters(final QueryParameters parameters,
+            final boolean push) {
+        final String newQuery = parameters.isEmpty() ? null : parameters
+                .toString();
+        if (newQuery == null ? query != null : !newQuery.equals(query)) {
+            this.parameters = new QueryParameters(parameters);
+            queryChanged(push);
+        }
+    }
+
+    private QueryParameters getParsedParameters() {
+        if (state == null && navigator != null) {
+            // the query is read along with the state
+            getState();
+        }
+        if (parameters == null) {
+            parameters = QueryParameters.parse(query);
+        }
+        return parameters;
+    }
+
+    private void queryChanged(final boolean push) {
+        query = parameters.isEmpty() ? null : parameters.toString();
+        final String url = buildUrl(getState());
+        updatingUrl = true;
+        try {
+            if (push) {
+                historyExtension.pushState(EMPTY_STATE_OBJECT, url);
+            } else {
+                historyExtension.replaceState(EMPTY_STATE_OBJECT, url);
+            }
+        } finally {
+            updatingUrl = false;
+        }
+    }
+
+    private String buildUrl(final String state) {
+        if (urlPrefix == null) {
+            urlPrefix = urlRoot + "/";
+        }
+        final StringBuilder pushStateUrl = new StringBuilder(urlPrefix.length()
+                + state.length() + (query != null ? query.length() + 1 : 0));
+        pushStateUrl.append(urlPrefix).append(state);
+        if (query != null) {
+            pushStateUrl.append('?').append(query);
+        }
+        return pushStateUrl.toString();
     }
 
     @Override
@@ -53,8 +219,16 @@ final class NavManager implements NavigationStateManager,
 
     @Override
     public void popState(final PopStateEvent event) {
+        if (updatingUrl) {
+            // our own push, the navigator is already there
+            return;
+        }
         state = parseStateFrom(event.getAddress());
+        final HistoryMetrics metrics = historyExtension.getMetrics();
+        metrics.navigation(state);
+        final long start = System.nanoTime();
         navigator.navigateTo(state);
+        metrics.navigationTime(state, System.nanoTime() - start);
     }
 
     private String parseStateFrom(final UI ui) {
@@ -75,7 +249,9 @@ final class NavManager implements NavigationStateManager,
         return "";
     }
 
-    private String parseStateFrom(final URI uri) {
+    String parseStateFrom(final URI address) {
+        // a bookmark made in a browser without the history API
+        final URI uri = Addresses.withoutFallbackFragment(address);
         final String path = uri.getPath();
         if (!path.startsWith(urlRoot)) {
             Logger.getLogger(getClass().getName()).warning(
@@ -88,7 +264,11 @@ final class NavManager implements NavigationStateManager,
         if (parsedState.startsWith("/")) {
             parsedState = parsedState.substring(1);
         }
-        query = uri.getQuery();
+        final String parsedQuery = uri.getRawQuery();
+        if (parsedQuery == null ? query != null : !parsedQuery.equals(query)) {
+            query = parsedQuery;
+            parameters = null;
+        }
         return parsedState;
     }
 }
\ No newline at end of file
@@ -0,0 +1,211 @@
+package com.github.wolfie.history;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import com.vaadin.navigator.Navigator;
+import com.vaadin.navigator.View;
+import com.vaadin.navigator.ViewProvider;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * A {@link ViewProvider} that can build views ahead of time, before they are
+ * navigated to.
+ * <p>
+ * A {@link PushStateLink} with a
+ * {@link PushStateLink#setPrefetchProvider(PrefetchingViewProvider) prefetch
+ * provider} tells the server when the user is about to click it, i.e. when the
+ * link is hovered or touched. The view is then built and staged right away,
+ * and the click only needs to show it.
+ * <p>
+ * Staged views are kept in the session. Each session has a budget of staged
+ * views, shared by all providers, and a staged view that isn't navigated to in
+ * time is dropped.
+ *
+ * <pre>
+ * PrefetchingViewProvider provider = new PrefetchingViewProvider(
+ *         new RouteViewProvider(ROUTES));
+ * navigator.addProvider(provider);
+ * link.setPrefetchProvider(provider);
+ * </pre>
+ */
+@SuppressWarnings("serial")
+public class PrefetchingViewProvider implements ViewProvider {
+
+    public static final int DEFAULT_MAX_STAGED_VIEWS = 4;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.SECONDS
+            .toMillis(30);
+
+    /**
+     * The views that are staged in a session.
+     */
+    private static class StagedViews implements Serializable {
+        private final ExpiringLruCache<StagedKey, View> views;
+
+        private StagedViews(final int maxViews, final long timeToLiveMillis) {
+            views = new ExpiringLruCache<StagedKey, View>(maxViews,
+                    timeToLiveMillis);
+        }
+    }
+
+    /**
+     * Identifies a staged view by the provider that built it, since views of
+     * different UIs may not be mixed.
+     */
+    private static class StagedKey implements Serializable {
+        private final PrefetchingViewProvider provider;
+        private final String viewName;
+
+        private StagedKey(final PrefetchingViewProvider provider,
+                final String viewName) {
+            this.provider = provider;
+            this.viewName = viewName;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof StagedKey)) {
+                return false;
+            }
+            final StagedKey other = (StagedKey) obj;
+            return provider == other.provider
+                    && viewName.equals(other.viewName);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(provider) * 31
+                    + viewName.hashCode();
+        }
+    }
+
+    private final ViewProvider delegate;
+    private final int maxStagedViews;
+    private final long timeToLiveMillis;
+
+    /**
+     * Creates a provider with the default budget of staged views per session.
+     *
+     * @param delegate the provider that actually builds the views
+     */
+    public PrefetchingViewProvider(final ViewProvider delegate) {
+        this(delegate, DEFAULT_MAX_STAGED_VIEWS, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    /**
+     * Creates a provider.
+     * <p>
+     * The budget is set by the first provider that stages a view in a
+     * session.
+     *
+     * @param delegate the provider that actually builds the views
+     * @param maxStagedViews the maximum amount of staged views per session
+     * @param timeToLiveMillis how long a staged view is kept, or
+     * <code>0</code> to keep views until they are evicted
+     * @throws IllegalArgumentException if <code>delegate</code> is
+     * <code>null</code>, <code>maxStagedViews</code> is less than 1 or
+     * <code>timeToLiveMillis</code> is negative
+     */
+    public PrefetchingViewProvider(final ViewProvider delegate,
+            final int maxStagedViews, final long timeToLiveMillis)
+            throws IllegalArgumentException {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate may not be null");
+        }
+        if (maxStagedViews < 1) {
+            throw new IllegalArgumentException(
+                    "maxStagedViews must be positive");
+        }
+        if (timeToLiveMillis < 0) {
+            throw new IllegalArgumentException(
+                    "timeToLiveMillis may not be negative");
+        }
+        this.delegate = delegate;
+        this.maxStagedViews = maxStagedViews;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Builds and stages the view for a navigation state, unless one is
+     * already staged. Does nothing if this provider doesn't know the state.
+     * <p>
+     * The session needs to be locked.
+     *
+     * @param navigationState the navigation state that is likely to be
+     * navigated to next
+     * @return <code>true</code> if a view is staged for the state
+     */
+    public boolean prefetch(final String navigationState) {
+        final String viewName = delegate.getViewName(navigationState);
+        if (viewName == null) {
+            return false;
+        }
+        final StagedViews staged = getStagedViews();
+        if (staged == null) {
+            return false;
+        }
+        final StagedKey key = new StagedKey(this, viewName);
+        if (staged.views.get(key) != null) {
+            return true;
+        }
+        final View view;
+        if (delegate instanceof RouteViewProvider) {
+            // not a navigation, so the current route match must stay as is
+            view = ((RouteViewProvider) delegate).createView(viewName);
+        } else {
+            view = delegate.getView(viewName);
+        }
+        if (view == null) {
+            return false;
+        }
+        staged.views.put(key, view);
+        return true;
+    }
+
+    @Override
+    public String getViewName(final String viewAndParameters) {
+        return delegate.getViewName(viewAndParameters);
+    }
+
+    @Override
+    public View getView(final String viewName) {
+        final StagedViews staged = getStagedViews();
+        if (staged != null) {
+            final StagedKey key = new StagedKey(this, viewName);
+            final View view = staged.views.get(key);
+            if (view != null) {
+                staged.views.remove(key);
+                if (delegate instanceof RouteViewProvider) {
+                    ((RouteViewProvider) delegate).viewShown(viewName);
+                }
+                return view;
+            }
+        }
+        return delegate.getView(viewName);
+    }
+
+    /**
+     * @return the views staged in the current session, or <code>null</code>
+     * if there is no current session
+     */
+    private StagedViews getStagedViews() {
+        final VaadinSession session = VaadinSession.getCurrent();
+        if (session == null) {
+            return null;
+        }
+        StagedViews staged = session.getAttribute(StagedViews.class);
+        if (staged == null) {
+            staged = new StagedViews(maxStagedViews, timeToLiveMillis);
+            session.setAttribute(StagedViews.class, staged);
+        }
+        return staged;
+    }
+
+    /**
+     * @return the provider that actually builds the views
+     * @see Navigator#addProvider(ViewProvider)
+     */
+    public ViewProvider getDelegate() {
+        return delegate;
+    }
+}
@@ -9,7 +9,9 @@ import com.vaadin.annotations.JavaScript;
 import com.vaadin.navigator.Navigator;
 import com.vaadin.server.VaadinServlet;
 import com.vaadin.ui.AbstractJavaScriptComponent;
+import com.vaadin.ui.Component;
 import com.vaadin.ui.JavaScriptFunction;
+import com.vaadin.ui.UI;
 import elemental.json.JsonArray;
 
 /**
@@ -23,25 +25,111 @@ public class PushStateLink extends AbstractJavaScriptComponent {
 
     private final String viewIndentifier;
     private final String text;
+    private PrefetchingViewProvider prefetchProvider;
 
     public PushStateLink(String caption, String viewIdentifier) {
         this.viewIndentifier = viewIdentifier;
         this.text = caption;
-            String contextPath = VaadinServlet.getCurrent().getServletContext()
-                    .getContextPath();
-
-            getState().setHref(contextPath + "/" + viewIndentifier);
+            getState().setHref(getContextPath() + "/" + viewIndentifier);
             getState().setText(text);
             addFunction("onClick", new JavaScriptFunction() {
                 @Override
                 public void call(JsonArray arguments) {
-                    // TODO figure out if it would be possible to set the correct value to Page location.
-                    Navigator navigator = getUI().getNavigator();
-                    navigator.navigateTo(viewIndentifier);
+                    onClick(arguments);
+                }
+            });
+            addFunction("onIntent", new JavaScriptFunction() {
+                @Override
+                public void call(JsonArray arguments) {
+                    if (prefetchProvider != null) {
+                        prefetchProvider.prefetch(viewIndentifier);
+                    }
                 }
             });
     }
 
+    /**
+     * Handles the arguments of a client-side <code>onClick</code> call: the
+     * address that the browser pushed, and the sequence number of the
+     * navigation.
+     */
+    void onClick(final JsonArray arguments) {
+        navigate(this, viewIndentifier, arguments.getString(0),
+                getSequence(arguments, 1));
+    }
+
+    /**
+     * Sets the provider that builds the view of this link ahead of time, as
+     * soon as the user hovers or touches the link. The provider needs to be
+     * one of the providers of the UI's {@link Navigator}.
+     *
+     * @param prefetchProvider the provider, or <code>null</code> to not
+     * prefetch
+     */
+    public void setPrefetchProvider(
+            final PrefetchingViewProvider prefetchProvider) {
+        this.prefetchProvider = prefetchProvider;
+        getState().setPrefetch(prefetchProvider != null);
+    }
+
+    /**
+     * @return the provider that builds the view of this link ahead of time,
+     * or <code>null</code> if none
+     */
+    public PrefetchingViewProvider getPrefetchProvider() {
+        return prefetchProvider;
+    }
+
+    /**
+     * Navigates to the view of a link that the browser has already pushed to
+     * its history. The {@link HistoryExtension} of the UI, if any, is told
+     * about the new entry so that it isn't pushed again.
+     *
+     * @see HistoryExtension#navigateOptimistically(String, long, Runnable)
+     */
+    static void navigate(final Component link, final String viewIdentifier,
+            final String href, final long sequence) {
+        final UI ui = link.getUI();
+        ui.getPage().updateLocation(href, false);
+        final Runnable navigation = new Runnable() {
+            @Override
+            public void run() {
+                Navigator navigator = ui.getNavigator();
+                navigator.navigateTo(viewIdentifier);
+            }
+        };
+
+        final HistoryExtension history = HistoryExtension.get(ui);
+        if (history != null) {
+            history.navigateOptimistically(href, sequence, navigation);
+        } else {
+            navigation.run();
+        }
+    }
+
+    /**
+     * @return the sequence number at the given index of the arguments, or
+     * <code>-1</code> if there is none
+     */
+    static long getSequence(final JsonArray arguments, final int index) {
+        if (arguments.length() <= index) {
+            return -1;
+        }
+        return (long) arguments.getNumber(index);
+    }
+
+    /**
+     * @return the context path of the current servlet, or <code>""</code> if
+     * there is none
+     */
+    static String getContextPath() {
+        final VaadinServlet servlet = VaadinServlet.getCurrent();
+        if (servlet == null) {
+            return "";
+        }
+        return servlet.getServletContext().getContextPath();
+    }
+
     @Override
     public PushStateLinkState getState() {
         return (PushStateLinkState) super.getState();
@@ -0,0 +1,169 @@
+package com.github.wolfie.history;
+
+import java.util.List;
+
+import com.vaadin.annotations.JavaScript;
+import com.vaadin.ui.AbstractJavaScriptComponent;
+import com.vaadin.ui.JavaScriptFunction;
+import elemental.json.JsonArray;
+
+/**
+ * Many links that navigate with push state, like {@link PushStateLink}, in a
+ * single component.
+ * <p>
+ * A menu of hundreds of {@link PushStateLink PushStateLinks} means hundreds of
+ * connectors, each with a state and functions of its own. A group has one of
+ * each: the links are sent as two lists, and the browser handles all their
+ * clicks with one listener.
+ * <p>
+ * The links are rendered as consecutive <code>a</code> elements with the
+ * style name <code>pushstatelink</code>, so their layout is up to the theme.
+ * Clicks with a modifier key are left to the browser, so that links can be
+ * opened in new tabs.
+ */
+@JavaScript("pushstatelinkgroup.js")
+public class PushStateLinkGroup extends AbstractJavaScriptComponent {
+
+    private PrefetchingViewProvider prefetchProvider;
+
+    public PushStateLinkGroup() {
+        getState().setContextPath(PushStateLink.getContextPath());
+        addFunction("onClick", new JavaScriptFunction() {
+            @Override
+            public void call(JsonArray arguments) {
+                onClick(arguments);
+            }
+        });
+        addFunction("onIntent", new JavaScriptFunction() {
+            @Override
+            public void call(JsonArray arguments) {
+                final String viewIdentifier = getViewIdentifier(arguments);
+                if (viewIdentifier != null && prefetchProvider != null) {
+                    prefetchProvider.prefetch(viewIdentifier);
+                }
+            }
+        });
+    }
+
+    /**
+     * Handles the arguments of a client-side <code>onClick</code> call: the
+     * index and view identifier of the link, the address that the browser
+     * pushed, and the sequence number of the navigation.
+     * <p>
+     * If the link has changed since the browser rendered it, the browser's
+     * entry is taken back, so that the address bar still matches the view.
+     */
+    void onClick(final JsonArray arguments) {
+        final String viewIdentifier = getViewIdentifier(arguments);
+        final long sequence = PushStateLink.getSequence(arguments, 3);
+        if (viewIdentifier != null) {
+            PushStateLink.navigate(this, viewIdentifier,
+                    arguments.getString(2), sequence);
+        } else {
+            final HistoryExtension history = HistoryExtension.get(getUI());
+            if (history != null) {
+                history.cancelNavigation(sequence);
+            }
+        }
+    }
+
+    /**
+     * Adds a link to the end of the group.
+     *
+     * @param caption the text of the link
+     * @param viewIdentifier the navigation state to navigate to
+     * @return the index of the link
+     */
+    public int addLink(final String caption, final String viewIdentifier) {
+        final PushStateLinkGroupState state = getState();
+        state.getViewIdentifiers().add(viewIdentifier);
+        state.getTexts().add(caption);
+        return state.getViewIdentifiers().size() - 1;
+    }
+
+    /**
+     * Removes a link.
+     *
+     * @param index the index of the link
+     * @throws IndexOutOfBoundsException if there is no such link
+     */
+    public void removeLink(final int index) throws IndexOutOfBoundsException {
+        final PushStateLinkGroupState state = getState();
+        state.getViewIdentifiers().remove(index);
+        state.getTexts().remove(index);
+    }
+
+    /**
+     * Removes all links.
+     */
+    public void removeAllLinks() {
+        final PushStateLinkGroupState state = getState();
+        state.getViewIdentifiers().clear();
+        state.getTexts().clear();
+    }
+
+    /**
+     * @return the amount of links in the group
+     */
+    public int getLinkCount() {
+        return getState(false).getViewIdentifiers().size();
+    }
+
+    /**
+     * @param index the index of a link
+     * @return the navigation state that the link navigates to
+     * @throws IndexOutOfBoundsException if there is no such link
+     */
+    public String getViewIdentifier(final int index)
+            throws IndexOutOfBoundsException {
+        return getState(false).getViewIdentifiers().get(index);
+    }
+
+    /**
+     * Sets the provider that builds the views of these links ahead of time,
+     * as soon as the user hovers or touches a link.
+     *
+     * @param prefetchProvider the provider, or <code>null</code> to not
+     * prefetch
+     * @see PushStateLink#setPrefetchProvider(PrefetchingViewProvider)
+     */
+    public void setPrefetchProvider(
+            final PrefetchingViewProvider prefetchProvider) {
+        this.prefetchProvider = prefetchProvider;
+        getState().setPrefetch(prefetchProvider != null);
+    }
+
+    /**
+     * @return the provider that builds the views of these links ahead of
+     * time, or <code>null</code> if none
+     */
+    public PrefetchingViewProvider getPrefetchProvider() {
+        return prefetchProvider;
+    }
+
+    /**
+     * The browser sends both the index and the view identifier of a link.
+     * They must still match, i.e. the links must not have changed since.
+     */
+    private String getViewIdentifier(final JsonArray arguments) {
+        final int index = (int) arguments.getNumber(0);
+        final String viewIdentifier = arguments.getString(1);
+        final List<String> viewIdentifiers = getState(false)
+                .getViewIdentifiers();
+        if (index < 0 || index >= viewIdentifiers.size()
+                || !viewIdentifiers.get(index).equals(viewIdentifier)) {
+            return null;
+        }
+        return viewIdentifier;
+    }
+
+    @Override
+    protected PushStateLinkGroupState getState() {
+        return (PushStateLinkGroupState) super.getState();
+    }
+
+    @Override
+    protected PushStateLinkGroupState getState(final boolean markAsDirty) {
+        return (PushStateLinkGroupState) super.getState(markAsDirty);
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.wolfie.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vaadin.shared.ui.JavaScriptComponentState;
+
+public class PushStateLinkGroupState extends JavaScriptComponentState {
+    private String contextPath;
+    private List<String> viewIdentifiers = new ArrayList<String>();
+    private List<String> texts = new ArrayList<String>();
+    private boolean prefetch;
+
+    public PushStateLinkGroupState() {
+    }
+
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    public void setContextPath(String contextPath) {
+        this.contextPath = contextPath;
+    }
+
+    public List<String> getViewIdentifiers() {
+        return viewIdentifiers;
+    }
+
+    public void setViewIdentifiers(List<String> viewIdentifiers) {
+        this.viewIdentifiers = viewIdentifiers;
+    }
+
+    public List<String> getTexts() {
+        return texts;
+    }
+
+    public void setTexts(List<String> texts) {
+        this.texts = texts;
+    }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+}
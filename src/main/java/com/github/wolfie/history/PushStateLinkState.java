@@ -20,6 +20,7 @@ import com.vaadin.shared.ui.JavaScriptComponentState;
 public class PushStateLinkState extends JavaScriptComponentState {
     private String href;
     private String text;
+    private boolean prefetch;
 
     public PushStateLinkState() {
     }
@@ -39,5 +40,13 @@ public class PushStateLinkState extends JavaScriptComponentState {
     public void setText(String text) {
         this.text = text;
     }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
     
 }
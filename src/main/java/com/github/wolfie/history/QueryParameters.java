@@ -0,0 +1,315 @@
+package com.github.wolfie.history;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The parameters of a URL query string, e.g.
+ * <code>"sort=name&amp;tags=red,blue&amp;price=10~50"</code>.
+ * <p>
+ * Parameters are kept in their encoded form, in the order they appeared in.
+ * Setting a parameter only encodes that parameter, and the other ones are
+ * written back exactly as they were read. Values are decoded when they are
+ * asked for.
+ * <p>
+ * Besides plain values, a parameter can hold a list of values, separated by
+ * {@value #LIST_SEPARATOR}, or a range, with the bounds separated by
+ * {@value #RANGE_SEPARATOR}. The separators are encoded when they appear
+ * inside a value, so they can't be mistaken for each other. A parameter that
+ * appears more than once in a parsed query is read as a list.
+ *
+ * @see NavManager#setParameter(String, String, boolean)
+ */
+@SuppressWarnings("serial")
+public final class QueryParameters implements Serializable {
+
+    public static final char LIST_SEPARATOR = ',';
+    public static final char RANGE_SEPARATOR = '~';
+
+    private static final String UTF_8 = "UTF-8";
+
+    /** decoded names to encoded values */
+    private final LinkedHashMap<String, String> parameters;
+    /**
+     * the encoded names of parsed parameters, by decoded name, when they
+     * differ from what {@link #encode(String)} would write
+     */
+    private final Map<String, String> encodedNames;
+    /** the query string, or <code>null</code> if it needs to be rebuilt */
+    private transient String query;
+
+    /**
+     * Creates an empty set of parameters.
+     */
+    public QueryParameters() {
+        parameters = new LinkedHashMap<String, String>();
+        encodedNames = new HashMap<String, String>();
+        query = "";
+    }
+
+    /**
+     * Creates a copy of other parameters.
+     *
+     * @param other the parameters to copy
+     */
+    public QueryParameters(final QueryParameters other) {
+        parameters = new LinkedHashMap<String, String>(other.parameters);
+        encodedNames = new HashMap<String, String>(other.encodedNames);
+        query = other.query;
+    }
+
+    /**
+     * Parses a query string.
+     *
+     * @param query an encoded query string, without the leading
+     * <code>'?'</code>, or <code>null</code>
+     * @return the parameters of the query
+     * @see java.net.URI#getRawQuery()
+     */
+    public static QueryParameters parse(final String query) {
+        final QueryParameters parsed = new QueryParameters();
+        if (query == null || query.isEmpty()) {
+            return parsed;
+        }
+
+        boolean repeated = false;
+        int start = 0;
+        while (start <= query.length()) {
+            int end = query.indexOf('&', start);
+            if (end < 0) {
+                end = query.length();
+            }
+            if (end > start) {
+                final int equals = query.indexOf('=', start);
+                final boolean hasValue = equals >= 0 && equals < end;
+                final String encodedName = query.substring(start,
+                        hasValue ? equals : end);
+                final String value = hasValue ? query.substring(equals + 1,
+                        end) : "";
+                final String name = decode(encodedName);
+
+                final String previous = parsed.parameters.get(name);
+                if (previous != null) {
+                    repeated = true;
+                    parsed.parameters.put(name, previous.isEmpty() ? value
+                            : previous + LIST_SEPARATOR + value);
+                } else {
+                    parsed.parameters.put(name, value);
+                    if (!encodedName.equals(encode(name))) {
+                        parsed.encodedNames.put(name, encodedName);
+                    }
+                }
+            }
+            start = end + 1;
+        }
+        parsed.query = repeated ? null : query;
+        return parsed;
+    }
+
+    /**
+     * @return <code>true</code> if there are no parameters
+     */
+    public boolean isEmpty() {
+        return parameters.isEmpty();
+    }
+
+    /**
+     * @return the decoded names of the parameters, in order
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(parameters.keySet());
+    }
+
+    /**
+     * @param name the name of a parameter
+     * @return <code>true</code> if there is a parameter with that name
+     */
+    public boolean has(final String name) {
+        return parameters.containsKey(name);
+    }
+
+    /**
+     * @param name the name of a parameter
+     * @param defaultValue the value to return if there is no such parameter
+     * @return the decoded value of the parameter, or <code>defaultValue</code>
+     */
+    public String get(final String name, final String defaultValue) {
+        final String value = parameters.get(name);
+        return value != null ? decode(value) : defaultValue;
+    }
+
+    /**
+     * @param name the name of a parameter
+     * @return the decoded values of the parameter, or an empty list if there
+     * is no such parameter
+     */
+    public List<String> getList(final String name) {
+        final String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> values = new ArrayList<String>();
+        int start = 0;
+        int separator;
+        while ((separator = value.indexOf(LIST_SEPARATOR, start)) >= 0) {
+            values.add(decode(value.substring(start, separator)));
+            start = separator + 1;
+        }
+        values.add(decode(value.substring(start)));
+        return values;
+    }
+
+    /**
+     * @param name the name of a parameter
+     * @return the decoded lower and upper bound of the range, where an open
+     * bound is <code>null</code>, or <code>null</code> if there is no such
+     * parameter, or it isn't a range
+     */
+    public String[] getRange(final String name) {
+        final String value = parameters.get(name);
+        if (value == null) {
+            return null;
+        }
+        final int separator = value.indexOf(RANGE_SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        final String from = value.substring(0, separator);
+        final String to = value.substring(separator + 1);
+        return new String[] { from.isEmpty() ? null : decode(from),
+                to.isEmpty() ? null : decode(to) };
+    }
+
+    /**
+     * Sets the value of a parameter. A new parameter is added last.
+     *
+     * @param name the name of the parameter
+     * @param value the value, or <code>null</code> to remove the parameter
+     * @return <code>true</code> if the parameters changed
+     */
+    public boolean set(final String name, final String value) {
+        if (value == null) {
+            return remove(name);
+        }
+        return put(name, encode(value));
+    }
+
+    /**
+     * Sets a parameter to a list of values, e.g.
+     * <code>"tags=red,blue"</code>. A new parameter is added last.
+     *
+     * @param name the name of the parameter
+     * @param values the values, or <code>null</code> to remove the parameter
+     * @return <code>true</code> if the parameters changed
+     */
+    public boolean setList(final String name, final Collection<String> values) {
+        if (values == null) {
+            return remove(name);
+        }
+        final StringBuilder value = new StringBuilder();
+        for (final Iterator<String> i = values.iterator(); i.hasNext();) {
+            value.append(encode(i.next()));
+            if (i.hasNext()) {
+                value.append(LIST_SEPARATOR);
+            }
+        }
+        return put(name, value.toString());
+    }
+
+    /**
+     * Sets a parameter to a range, e.g. <code>"price=10~50"</code>. A new
+     * parameter is added last.
+     *
+     * @param name the name of the parameter
+     * @param from the lower bound, or <code>null</code> if there is none
+     * @param to the upper bound, or <code>null</code> if there is none
+     * @return <code>true</code> if the parameters changed
+     */
+    public boolean setRange(final String name, final String from,
+            final String to) {
+        return put(name, (from != null ? encode(from) : "")
+                + RANGE_SEPARATOR + (to != null ? encode(to) : ""));
+    }
+
+    /**
+     * Removes a parameter.
+     *
+     * @param name the name of the parameter
+     * @return <code>true</code> if there was such a parameter
+     */
+    public boolean remove(final String name) {
+        if (parameters.remove(name) == null) {
+            return false;
+        }
+        encodedNames.remove(name);
+        query = null;
+        return true;
+    }
+
+    private boolean put(final String name, final String encodedValue) {
+        if (name == null) {
+            throw new IllegalArgumentException("name may not be null");
+        }
+        final String previous = parameters.put(name, encodedValue);
+        if (encodedValue.equals(previous)) {
+            return false;
+        }
+        query = null;
+        return true;
+    }
+
+    /**
+     * @return the encoded query string, without the leading <code>'?'</code>
+     */
+    @Override
+    public String toString() {
+        if (query == null) {
+            final StringBuilder builder = new StringBuilder();
+            for (final Map.Entry<String, String> parameter : parameters
+                    .entrySet()) {
+                if (builder.length() > 0) {
+                    builder.append('&');
+                }
+                final String name = parameter.getKey();
+                final String encodedName = encodedNames.get(name);
+                builder.append(encodedName != null ? encodedName
+                        : encode(name));
+                if (!parameter.getValue().isEmpty()) {
+                    builder.append('=').append(parameter.getValue());
+                }
+            }
+            query = builder.toString();
+        }
+        return query;
+    }
+
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, UTF_8);
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, UTF_8);
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (final IllegalArgumentException e) {
+            // a malformed escape, typed by hand
+            return value;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.wolfie.history;
+
+import java.io.Serializable;
+
+import com.github.wolfie.history.RouteTable.ParameterType;
+import com.github.wolfie.history.RouteTable.Route;
+
+/**
+ * The result of resolving a navigation state with a {@link RouteTable}: the
+ * matched route, and the values of its parameters.
+ * <p>
+ * Typed parameters have already been parsed during the lookup. String
+ * parameters are only cut out of the navigation state when they are asked
+ * for.
+ *
+ * @see RouteTable#resolve(String)
+ */
+@SuppressWarnings("serial")
+public final class RouteMatch implements Serializable {
+
+    private final Route route;
+    private final String path;
+    private final int[] bounds;
+    private final long[] values;
+
+    RouteMatch(final Route route, final String path, final int[] bounds,
+            final long[] values) {
+        this.route = route;
+        this.path = path;
+        this.bounds = bounds;
+        this.values = values;
+    }
+
+    /**
+     * @return the view name of the matched route, i.e. its leading literal
+     * segments
+     */
+    public String getViewName() {
+        return route.viewName;
+    }
+
+    /**
+     * @return the pattern of the matched route, as it was added to the
+     * {@link RouteTable}
+     */
+    public String getPattern() {
+        return route.pattern;
+    }
+
+    /**
+     * @param name the name of a parameter
+     * @return <code>true</code> if the matched route has a parameter with that
+     * name
+     */
+    public boolean has(final String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * @param name the name of a parameter
+     * @param defaultValue the value to return if the matched route has no such
+     * parameter
+     * @return the parameter value as it appeared in the navigation state, or
+     * <code>defaultValue</code>
+     */
+    public String getString(final String name, final String defaultValue) {
+        final int index = indexOf(name);
+        if (index < 0) {
+            return defaultValue;
+        }
+        return path.substring(bounds[index * 2], bounds[index * 2 + 1]);
+    }
+
+    /**
+     * @param name the name of an <code>int</code> parameter
+     * @param defaultValue the value to return if the matched route has no such
+     * <code>int</code> parameter
+     * @return the parameter value, or <code>defaultValue</code>
+     */
+    public int getInt(final String name, final int defaultValue) {
+        final int index = indexOf(name);
+        if (index < 0 || route.parameterTypes[index] != ParameterType.INT) {
+            return defaultValue;
+        }
+        return (int) values[index];
+    }
+
+    /**
+     * @param name the name of an <code>int</code> or <code>long</code>
+     * parameter
+     * @param defaultValue the value to return if the matched route has no such
+     * parameter
+     * @return the parameter value, or <code>defaultValue</code>
+     */
+    public long getLong(final String name, final long defaultValue) {
+        final int index = indexOf(name);
+        if (index < 0 || route.parameterTypes[index] == ParameterType.STRING) {
+            return defaultValue;
+        }
+        return values[index];
+    }
+
+    private int indexOf(final String name) {
+        final String[] names = route.parameterNames;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return route.pattern + " <- " + path;
+    }
+}
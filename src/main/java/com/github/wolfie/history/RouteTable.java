@@ -0,0 +1,386 @@
+package com.github.wolfie.history;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A table of navigation routes, compiled into a trie of path segments.
+ * <p>
+ * Routes are patterns of <code>/</code>-separated segments. A segment is
+ * either a literal, or a parameter in curly braces, optionally with a type:
+ *
+ * <pre>
+ * RouteTable routes = new RouteTable();
+ * routes.addRoute(&quot;about&quot;);
+ * routes.addRoute(&quot;table&quot;);
+ * routes.addRoute(&quot;table/{id:int}&quot;);
+ * routes.addRoute(&quot;user/{name}/posts/{postId:long}&quot;);
+ * </pre>
+ *
+ * The supported types are <code>int</code>, <code>long</code> and
+ * <code>string</code>, which is the default. The leading literal segments of a
+ * route make up its view name, e.g. <code>table</code> for
+ * <code>table/{id:int}</code>. Literal segments win over parameters, and typed
+ * parameters win over string parameters.
+ * <p>
+ * {@link #resolve(String)} walks the path once, without cutting it into
+ * substrings, and the cost of a lookup depends on the length of the path, not
+ * on the number of routes.
+ * <p>
+ * A table is meant to be configured once per application, e.g. in a static
+ * initializer, and then shared. It is safe to resolve paths from several
+ * threads at once, as long as no routes are added anymore.
+ *
+ * @see RouteViewProvider
+ */
+@SuppressWarnings("serial")
+public class RouteTable implements Serializable {
+
+    enum ParameterType {
+        INT, LONG, STRING
+    }
+
+    /** A registered route pattern */
+    static class Route implements Serializable {
+        final String pattern;
+        final String viewName;
+        final String[] parameterNames;
+        final ParameterType[] parameterTypes;
+
+        private Route(final String pattern, final String viewName,
+                final String[] parameterNames,
+                final ParameterType[] parameterTypes) {
+            this.pattern = pattern;
+            this.viewName = viewName;
+            this.parameterNames = parameterNames;
+            this.parameterTypes = parameterTypes;
+        }
+    }
+
+    private static class Node implements Serializable {
+        /*
+         * Literal children, in an open addressing hash table, so that a path
+         * segment can be looked up without making a substring out of it.
+         */
+        private String[] literals = new String[4];
+        private int[] hashes = new int[4];
+        private Node[] literalChildren = new Node[4];
+        private int literalCount = 0;
+
+        private Node intChild;
+        private Node longChild;
+        private Node stringChild;
+
+        private Route route;
+
+        private Node getOrAddLiteral(final String literal) {
+            final Node existing = findLiteral(literal, 0, literal.length());
+            if (existing != null) {
+                return existing;
+            }
+            if ((literalCount + 1) * 2 > literals.length) {
+                grow();
+            }
+            final Node child = new Node();
+            insert(literal, literal.hashCode(), child);
+            literalCount++;
+            return child;
+        }
+
+        private Node findLiteral(final String path, final int from,
+                final int to) {
+            int hash = 0;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + path.charAt(i);
+            }
+
+            final int length = to - from;
+            final int mask = literals.length - 1;
+            for (int i = spread(hash) & mask; literals[i] != null; i = (i + 1)
+                    & mask) {
+                if (hashes[i] == hash && literals[i].length() == length
+                        && path.regionMatches(from, literals[i], 0, length)) {
+                    return literalChildren[i];
+                }
+            }
+            return null;
+        }
+
+        private void insert(final String literal, final int hash,
+                final Node child) {
+            final int mask = literals.length - 1;
+            int i = spread(hash) & mask;
+            while (literals[i] != null) {
+                i = (i + 1) & mask;
+            }
+            literals[i] = literal;
+            hashes[i] = hash;
+            literalChildren[i] = child;
+        }
+
+        private void grow() {
+            final String[] oldLiterals = literals;
+            final int[] oldHashes = hashes;
+            final Node[] oldChildren = literalChildren;
+            literals = new String[oldLiterals.length * 2];
+            hashes = new int[oldLiterals.length * 2];
+            literalChildren = new Node[oldLiterals.length * 2];
+            for (int i = 0; i < oldLiterals.length; i++) {
+                if (oldLiterals[i] != null) {
+                    insert(oldLiterals[i], oldHashes[i], oldChildren[i]);
+                }
+            }
+        }
+
+        private static int spread(final int hash) {
+            return hash ^ hash >>> 16;
+        }
+    }
+
+    private final Node root = new Node();
+    private int maxParameters = 0;
+
+    /**
+     * Adds a route.
+     *
+     * @param pattern the route pattern, e.g. <code>table/{id:int}</code>
+     * @throws IllegalArgumentException if the pattern is malformed, or the
+     * same pattern has already been added
+     */
+    public void addRoute(final String pattern) throws IllegalArgumentException {
+        if (pattern == null) {
+            throw new IllegalArgumentException("pattern may not be null");
+        }
+
+        final String trimmed = trimSlashes(pattern);
+        final String[] segments = trimmed.isEmpty() ? new String[0] : trimmed
+                .split("/", -1);
+
+        final List<String> names = new ArrayList<String>();
+        final List<ParameterType> types = new ArrayList<ParameterType>();
+        final StringBuilder viewName = new StringBuilder();
+        boolean inViewName = true;
+
+        Node node = root;
+        for (final String segment : segments) {
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                inViewName = false;
+                node = addParameter(node, segment, pattern, names, types);
+            } else if (segment.isEmpty() || segment.indexOf('{') >= 0
+                    || segment.indexOf('}') >= 0) {
+                throw new IllegalArgumentException("Malformed segment '"
+                        + segment + "' in route " + pattern);
+            } else {
+                if (inViewName) {
+                    if (viewName.length() > 0) {
+                        viewName.append('/');
+                    }
+                    viewName.append(segment);
+                }
+                node = node.getOrAddLiteral(segment);
+            }
+        }
+
+        if (node.route != null) {
+            throw new IllegalArgumentException("Route " + pattern
+                    + " collides with " + node.route.pattern);
+        }
+        node.route = new Route(pattern, viewName.toString(),
+                names.toArray(new String[names.size()]),
+                types.toArray(new ParameterType[types.size()]));
+        maxParameters = Math.max(maxParameters, names.size());
+    }
+
+    private static Node addParameter(final Node node, final String segment,
+            final String pattern, final List<String> names,
+            final List<ParameterType> types) {
+        final String declaration = segment.substring(1, segment.length() - 1);
+        final int colon = declaration.indexOf(':');
+        final String name = colon < 0 ? declaration : declaration.substring(0,
+                colon);
+        final String typeName = colon < 0 ? "string" : declaration
+                .substring(colon + 1);
+
+        if (name.isEmpty() || names.contains(name)) {
+            throw new IllegalArgumentException("Missing or duplicate "
+                    + "parameter name in route " + pattern);
+        }
+
+        final ParameterType type;
+        if ("int".equals(typeName)) {
+            type = ParameterType.INT;
+            if (node.intChild == null) {
+                node.intChild = new Node();
+            }
+        } else if ("long".equals(typeName)) {
+            type = ParameterType.LONG;
+            if (node.longChild == null) {
+                node.longChild = new Node();
+            }
+        } else if ("string".equals(typeName)) {
+            type = ParameterType.STRING;
+            if (node.stringChild == null) {
+                node.stringChild = new Node();
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown parameter type '"
+                    + typeName + "' in route " + pattern);
+        }
+
+        names.add(name);
+        types.add(type);
+        switch (type) {
+        case INT:
+            return node.intChild;
+        case LONG:
+            return node.longChild;
+        default:
+            return node.stringChild;
+        }
+    }
+
+    /**
+     * Finds the route that matches a navigation state, e.g.
+     * <code>table/5</code>. A leading and a trailing <code>/</code> are
+     * ignored.
+     *
+     * @param path the navigation state
+     * @return the match, or <code>null</code> if no route matches
+     */
+    public RouteMatch resolve(final String path) {
+        return resolve(path, 0);
+    }
+
+    /**
+     * Finds the route that matches the part of <code>path</code> that starts
+     * at <code>offset</code>. This lets callers skip a known prefix, like a
+     * context path, without cutting it off first.
+     *
+     * @param path the string that contains the navigation state
+     * @param offset the index at which the navigation state starts
+     * @return the match, or <code>null</code> if no route matches
+     */
+    public RouteMatch resolve(final String path, final int offset) {
+        int start = offset;
+        int end = path.length();
+        if (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        if (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+
+        final int[] bounds = new int[maxParameters * 2];
+        final long[] values = new long[maxParameters];
+        final Route route = match(root, path, start, end, bounds, values, 0);
+        return route != null ? new RouteMatch(route, path, bounds, values)
+                : null;
+    }
+
+    private static Route match(final Node node, final String path,
+            final int position, final int end, final int[] bounds,
+            final long[] values, final int parameterIndex) {
+        if (position >= end) {
+            return node.route;
+        }
+
+        int segmentEnd = path.indexOf('/', position);
+        if (segmentEnd < 0 || segmentEnd > end) {
+            segmentEnd = end;
+        }
+        final int next = segmentEnd + 1;
+
+        final Node literal = node.findLiteral(path, position, segmentEnd);
+        if (literal != null) {
+            final Route route = match(literal, path, next, end, bounds,
+                    values, parameterIndex);
+            if (route != null) {
+                return route;
+            }
+        }
+
+        if (segmentEnd == position) {
+            // parameters can't be empty
+            return null;
+        }
+
+        if (node.intChild != null || node.longChild != null) {
+            final long value = parseLong(path, position, segmentEnd);
+            final boolean isLong = value != NOT_A_NUMBER;
+            final boolean isInt = isLong && value >= Integer.MIN_VALUE
+                    && value <= Integer.MAX_VALUE;
+            if (isInt && node.intChild != null) {
+                final Route route = matchParameter(node.intChild, path,
+                        position, segmentEnd, value, end, bounds, values,
+                        parameterIndex);
+                if (route != null) {
+                    return route;
+                }
+            }
+            if (isLong && node.longChild != null) {
+                final Route route = matchParameter(node.longChild, path,
+                        position, segmentEnd, value, end, bounds, values,
+                        parameterIndex);
+                if (route != null) {
+                    return route;
+                }
+            }
+        }
+
+        if (node.stringChild != null) {
+            return matchParameter(node.stringChild, path, position,
+                    segmentEnd, 0, end, bounds, values, parameterIndex);
+        }
+        return null;
+    }
+
+    private static Route matchParameter(final Node child, final String path,
+            final int position, final int segmentEnd, final long value,
+            final int end, final int[] bounds, final long[] values,
+            final int parameterIndex) {
+        bounds[parameterIndex * 2] = position;
+        bounds[parameterIndex * 2 + 1] = segmentEnd;
+        values[parameterIndex] = value;
+        return match(child, path, segmentEnd + 1, end, bounds, values,
+                parameterIndex + 1);
+    }
+
+    /**
+     * Returned by {@link #parseLong} for anything that isn't a number. This
+     * means that {@link Long#MIN_VALUE} itself isn't accepted as a parameter.
+     */
+    private static final long NOT_A_NUMBER = Long.MIN_VALUE;
+
+    static long parseLong(final CharSequence path, final int from,
+            final int to) {
+        final boolean negative = path.charAt(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to) {
+            return NOT_A_NUMBER;
+        }
+
+        long result = 0;
+        for (; i < to; i++) {
+            final int digit = path.charAt(i) - '0';
+            if (digit < 0 || digit > 9
+                    || result < (-Long.MAX_VALUE + digit) / 10) {
+                return NOT_A_NUMBER;
+            }
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static String trimSlashes(final String pattern) {
+        int start = 0;
+        int end = pattern.length();
+        if (start < end && pattern.charAt(start) == '/') {
+            start++;
+        }
+        if (end > start && pattern.charAt(end - 1) == '/') {
+            end--;
+        }
+        return pattern.substring(start, end);
+    }
+}
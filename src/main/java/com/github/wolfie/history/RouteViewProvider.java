@@ -0,0 +1,136 @@
+package com.github.wolfie.history;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vaadin.navigator.Navigator;
+import com.vaadin.navigator.View;
+import com.vaadin.navigator.ViewProvider;
+
+/**
+ * A {@link ViewProvider} that finds views through a {@link RouteTable}, so
+ * that a {@link Navigator} resolves a navigation state to a view and its typed
+ * parameters in a single lookup.
+ * <p>
+ * Views are registered by view name, i.e. the leading literal segments of the
+ * routes. After a navigation, the view can read its parameters from
+ * {@link #getCurrentMatch()} instead of splitting the parameter string again:
+ *
+ * <pre>
+ * RouteViewProvider provider = new RouteViewProvider(ROUTES);
+ * provider.addView(&quot;table&quot;, tableView);
+ * navigator.addProvider(provider);
+ * ...
+ * tableView.select(provider.getCurrentMatch().getInt(&quot;id&quot;, -1));
+ * </pre>
+ */
+@SuppressWarnings("serial")
+public class RouteViewProvider implements ViewProvider {
+
+    private final RouteTable routes;
+    private final Map<String, View> views = new HashMap<String, View>();
+    private final Map<String, Class<? extends View>> viewClasses = new HashMap<String, Class<? extends View>>();
+
+    private RouteMatch resolvedMatch;
+    private RouteMatch currentMatch;
+
+    /**
+     * @param routes the routes that this provider serves. The table may be
+     * shared with other providers.
+     */
+    public RouteViewProvider(final RouteTable routes) {
+        if (routes == null) {
+            throw new IllegalArgumentException("routes may not be null");
+        }
+        this.routes = routes;
+    }
+
+    /**
+     * Registers a view instance that is shown for all routes with the given
+     * view name.
+     *
+     * @param viewName the view name
+     * @param view the view
+     */
+    public void addView(final String viewName, final View view) {
+        viewClasses.remove(viewName);
+        views.put(viewName, view);
+    }
+
+    /**
+     * Registers a view class that is instantiated whenever one of the routes
+     * with the given view name is navigated to.
+     *
+     * @param viewName the view name
+     * @param viewClass the view class, which needs a public no-argument
+     * constructor
+     */
+    public void addView(final String viewName,
+            final Class<? extends View> viewClass) {
+        views.remove(viewName);
+        viewClasses.put(viewName, viewClass);
+    }
+
+    @Override
+    public String getViewName(final String viewAndParameters) {
+        resolvedMatch = routes.resolve(viewAndParameters);
+        if (resolvedMatch == null) {
+            return null;
+        }
+        final String viewName = resolvedMatch.getViewName();
+        if (!views.containsKey(viewName) && !viewClasses.containsKey(viewName)) {
+            resolvedMatch = null;
+            return null;
+        }
+        return viewName;
+    }
+
+    @Override
+    public View getView(final String viewName) {
+        final View view = createView(viewName);
+        if (view != null) {
+            viewShown(viewName);
+        }
+        return view;
+    }
+
+    /**
+     * Returns or instantiates the view, without making its route the current
+     * one.
+     */
+    View createView(final String viewName) {
+        final View view = views.get(viewName);
+        if (view != null) {
+            return view;
+        }
+        final Class<? extends View> viewClass = viewClasses.get(viewName);
+        if (viewClass == null) {
+            return null;
+        }
+        try {
+            return viewClass.newInstance();
+        } catch (final InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Makes the latest resolved route the current one, if it is for the
+     * view that is being shown.
+     */
+    void viewShown(final String viewName) {
+        if (resolvedMatch != null && resolvedMatch.getViewName().equals(viewName)) {
+            currentMatch = resolvedMatch;
+        }
+    }
+
+    /**
+     * @return the route match of the latest navigation through this provider,
+     * or <code>null</code> if there has been none
+     */
+    public RouteMatch getCurrentMatch() {
+        return currentMatch;
+    }
+}
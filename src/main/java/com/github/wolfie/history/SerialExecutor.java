@@ -0,0 +1,82 @@
+package com.github.wolfie.history;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on an underlying
+ * {@link Executor}. The underlying executor may be shared by many serial
+ * executors, and may run their tasks on any number of threads.
+ * <p>
+ * If the underlying executor rejects a task, the task is dropped, and the
+ * next one in the queue is tried, until one is accepted or the queue is
+ * empty. The submitter of a task that is rejected right away is told with a
+ * {@link RejectedExecutionException}. If the task was waiting for an earlier
+ * one, the rejection is logged.
+ */
+final class SerialExecutor implements Executor {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+    private final Executor executor;
+    private Runnable active;
+
+    SerialExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the underlying executor
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        final Runnable serialTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext(null);
+                }
+            }
+        };
+        tasks.add(serialTask);
+        if (active == null) {
+            scheduleNext(serialTask);
+        }
+    }
+
+    /**
+     * Hands the next queued task to the underlying executor, skipping the
+     * ones it rejects. The queue is empty whenever no task is active.
+     *
+     * @param submitted the task that the caller has just submitted, whose
+     * rejection is thrown rather than logged, or <code>null</code>
+     */
+    private synchronized void scheduleNext(final Runnable submitted) {
+        RejectedExecutionException rejection = null;
+        while ((active = tasks.poll()) != null) {
+            try {
+                executor.execute(active);
+                break;
+            } catch (final RejectedExecutionException e) {
+                if (active == submitted) {
+                    rejection = e;
+                } else {
+                    Logger.getLogger(SerialExecutor.class.getName()).log(
+                            Level.WARNING, "A queued task was rejected", e);
+                }
+            }
+        }
+        if (rejection != null) {
+            throw rejection;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.wolfie.history;
+
+import java.io.Serializable;
+
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+
+/**
+ * Converts history state objects into the form in which they are sent to, and
+ * stored in, the browser.
+ * <p>
+ * The client side never looks inside an encoded state: it stores it as-is in
+ * <code>history.state</code>, and sends it back unchanged on
+ * <code>popstate</code>. This means that a codec only needs to be able to
+ * decode what it has encoded itself.
+ *
+ * @see HistoryExtension#setStateCodec(StateCodec)
+ * @see JsonStateCodec
+ * @see CompactStateCodec
+ */
+public interface StateCodec extends Serializable {
+
+    /**
+     * Encodes a state for the browser.
+     *
+     * @param state the state to encode. Never <code>null</code>.
+     * @return the encoded state
+     */
+    JsonValue encode(JsonObject state);
+
+    /**
+     * Decodes a state that the browser sent back.
+     *
+     * @param encoded the encoded state. Never <code>null</code>.
+     * @return the decoded state, or <code>null</code> if <code>encoded</code>
+     * isn't something this codec has produced (e.g. a history entry that was
+     * created with another codec).
+     */
+    JsonObject decode(JsonValue encoded);
+}
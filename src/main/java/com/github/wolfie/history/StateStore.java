@@ -0,0 +1,111 @@
+package com.github.wolfie.history;
+
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import elemental.json.JsonObject;
+
+import com.vaadin.server.VaadinSession;
+
+/**
+ * A bounded, server-side store for history state objects. When a
+ * {@link HistoryExtension} has a store, the browser only gets a short key for
+ * each state, instead of the state itself.
+ * <p>
+ * Entries are evicted when the store is full (least recently used first), and
+ * when they haven't been used within the time-to-live. A
+ * {@link HistoryExtension.PopStateEvent PopStateEvent} for an entry that has
+ * been evicted reports it through
+ * {@link HistoryExtension.PopStateEvent#isStateEvicted() isStateEvicted()}.
+ *
+ * @see HistoryExtension#setStateStore(StateStore)
+ * @see #getSessionStore(VaadinSession)
+ */
+@SuppressWarnings("serial")
+public class StateStore implements Serializable {
+
+    public static final int DEFAULT_MAX_ENTRIES = 200;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES
+            .toMillis(30);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ExpiringLruCache<String, JsonObject> states;
+
+    /**
+     * Keys are prefixed with a random string, so that history entries that
+     * outlive a session can't resolve to the state of another store.
+     */
+    private final String keyPrefix = Long.toString(
+            RANDOM.nextInt(Integer.MAX_VALUE), Character.MAX_RADIX);
+    private long nextKey = 0;
+
+    /**
+     * Creates a new store.
+     *
+     * @param maxEntries the maximum amount of states to keep
+     * @param timeToLiveMillis how long a state is kept after it was last used,
+     * or <code>0</code> to keep states until they are evicted
+     * @throws IllegalArgumentException if <code>maxEntries</code> is less than
+     * 1, or <code>timeToLiveMillis</code> is negative
+     */
+    public StateStore(final int maxEntries, final long timeToLiveMillis)
+            throws IllegalArgumentException {
+        states = new ExpiringLruCache<String, JsonObject>(maxEntries,
+                timeToLiveMillis);
+    }
+
+    /**
+     * Returns the store that is shared by all UIs in the given session, and
+     * creates it with the default limits if there is none yet.
+     * <p>
+     * The session needs to be locked.
+     *
+     * @param session the session
+     * @return the session's store
+     */
+    public static StateStore getSessionStore(final VaadinSession session) {
+        StateStore store = session.getAttribute(StateStore.class);
+        if (store == null) {
+            store = new StateStore(DEFAULT_MAX_ENTRIES,
+                    DEFAULT_TIME_TO_LIVE_MILLIS);
+            session.setAttribute(StateStore.class, store);
+        }
+        return store;
+    }
+
+    /**
+     * Stores a state.
+     *
+     * @param state the state to store
+     * @return the key with which the state can be found again
+     */
+    public String put(final JsonObject state) {
+        final String key;
+        synchronized (this) {
+            key = keyPrefix + "." + Long.toString(nextKey++,
+                    Character.MAX_RADIX);
+        }
+        states.put(key, state);
+        return key;
+    }
+
+    /**
+     * Finds a stored state.
+     *
+     * @param key the key returned by {@link #put(JsonObject)}
+     * @return the state, or <code>null</code> if it has been evicted, or was
+     * never stored here
+     */
+    public JsonObject get(final String key) {
+        return states.get(key);
+    }
+
+    /**
+     * @return the number of states currently held
+     */
+    public int size() {
+        return states.size();
+    }
+}
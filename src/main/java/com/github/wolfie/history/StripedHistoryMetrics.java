@@ -0,0 +1,251 @@
+package com.github.wolfie.history;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.github.wolfie.history.HistoryExtension.ErrorEvent;
+
+/**
+ * A low-overhead {@link HistoryMetrics} that can be shared by all sessions.
+ * <p>
+ * Every counter is split into stripes, and each thread updates the stripe of
+ * its own, so that concurrent requests rarely contend for the same memory.
+ * The stripes are summed up when the metrics are read. Times are recorded in
+ * histograms with fixed, power-of-two buckets, so recording never allocates.
+ */
+public class StripedHistoryMetrics implements HistoryMetrics {
+
+    /**
+     * Immutable view of a latency histogram. Bucket <code>i</code> counts the
+     * times from <code>2<sup>i</sup></code> up to
+     * <code>2<sup>i+1</sup></code> nanoseconds; bucket 0 also counts zero.
+     */
+    public static final class Latencies {
+        private final long count;
+        private final long totalNanos;
+        private final long[] buckets;
+
+        private Latencies(final long count, final long totalNanos,
+                final long[] buckets) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.buckets = buckets;
+        }
+
+        /**
+         * @return the number of recorded times
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the sum of all recorded times, in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * @return the average time in nanoseconds, or <code>0</code> if
+         * nothing has been recorded
+         */
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * @param bucket the index of a bucket, from <code>0</code> to
+         * <code>63</code>
+         * @return the number of times recorded in that bucket
+         */
+        public long getBucketCount(final int bucket) {
+            return buckets[bucket];
+        }
+
+        /**
+         * Estimates a percentile. The result is the upper bound of the bucket
+         * that the percentile falls into, so it is off by at most a factor of
+         * two.
+         *
+         * @param percentile the percentile, from <code>0</code> to
+         * <code>100</code>
+         * @return the estimate in nanoseconds, or <code>0</code> if nothing
+         * has been recorded
+         */
+        public long getPercentileNanos(final double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1,
+                    (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return i == BUCKETS - 1 ? Long.MAX_VALUE
+                            : (1L << (i + 1)) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static final int BUCKETS = 64;
+
+    private static final int OPERATIONS = Operation.values().length;
+    private static final int ERRORS = ErrorEvent.Type.values().length;
+
+    private static final int PAYLOAD_COUNT = OPERATIONS + ERRORS;
+    private static final int PAYLOAD_TOTAL = PAYLOAD_COUNT + 1;
+    private static final int NAVIGATIONS = PAYLOAD_TOTAL + 1;
+    private static final int LISTENER = NAVIGATIONS + 1;
+    private static final int NAVIGATION = LISTENER + 1 + BUCKETS;
+
+    /**
+     * The slots of one stripe, plus a cache line of padding so that
+     * neighbouring stripes don't share one.
+     */
+    private static final int STRIPE_LENGTH = ((NAVIGATION + 1
+            + BUCKETS + 7) & ~7) + 8;
+
+    private final AtomicLongArray slots;
+    private final int stripeMask;
+
+    /**
+     * Creates metrics with a stripe for each available processor.
+     */
+    public StripedHistoryMetrics() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrency the expected number of threads recording at the same
+     * time. It is rounded up to a power of two, and capped at 64.
+     */
+    public StripedHistoryMetrics(final int concurrency) {
+        int stripes = 1;
+        while (stripes < concurrency && stripes < 64) {
+            stripes <<= 1;
+        }
+        stripeMask = stripes - 1;
+        slots = new AtomicLongArray(stripes * STRIPE_LENGTH);
+    }
+
+    @Override
+    public void count(final Operation operation) {
+        slots.incrementAndGet(stripe() + operation.ordinal());
+    }
+
+    @Override
+    public void error(final ErrorEvent.Type type) {
+        slots.incrementAndGet(stripe() + OPERATIONS + type.ordinal());
+    }
+
+    @Override
+    public void payload(final int bytes) {
+        final int stripe = stripe();
+        slots.incrementAndGet(stripe + PAYLOAD_COUNT);
+        slots.addAndGet(stripe + PAYLOAD_TOTAL, bytes);
+    }
+
+    @Override
+    public void listenerTime(final long nanos) {
+        record(LISTENER, nanos);
+    }
+
+    @Override
+    public void navigation(final String state) {
+        slots.incrementAndGet(stripe() + NAVIGATIONS);
+    }
+
+    @Override
+    public void navigationTime(final String state, final long nanos) {
+        record(NAVIGATION, nanos);
+    }
+
+    /**
+     * @param operation an operation
+     * @return how many times it has taken place
+     */
+    public long getCount(final Operation operation) {
+        return sum(operation.ordinal());
+    }
+
+    /**
+     * @param type an error type
+     * @return how many errors of that type the browsers have reported
+     */
+    public long getErrorCount(final ErrorEvent.Type type) {
+        return sum(OPERATIONS + type.ordinal());
+    }
+
+    /**
+     * @return the number of states sent to or received from the browsers
+     * @see HistoryMetrics#payload(int)
+     */
+    public long getPayloadCount() {
+        return sum(PAYLOAD_COUNT);
+    }
+
+    /**
+     * @return the total size of the states sent to or received from the
+     * browsers, in bytes of their encoded form
+     */
+    public long getPayloadTotal() {
+        return sum(PAYLOAD_TOTAL);
+    }
+
+    /**
+     * @return the number of navigation state changes
+     */
+    public long getNavigationCount() {
+        return sum(NAVIGATIONS);
+    }
+
+    /**
+     * @return the times spent in popstate listeners
+     */
+    public Latencies getListenerTimes() {
+        return latencies(LISTENER);
+    }
+
+    /**
+     * @return the times spent in navigating after the browsers moved in their
+     * history
+     */
+    public Latencies getNavigationTimes() {
+        return latencies(NAVIGATION);
+    }
+
+    private int stripe() {
+        return ((int) Thread.currentThread().getId() & stripeMask)
+                * STRIPE_LENGTH;
+    }
+
+    private void record(final int histogram, final long nanos) {
+        final int stripe = stripe() + histogram;
+        final int bucket = nanos <= 0 ? 0 : 63 - Long
+                .numberOfLeadingZeros(nanos);
+        slots.addAndGet(stripe, Math.max(0, nanos));
+        slots.incrementAndGet(stripe + 1 + bucket);
+    }
+
+    private long sum(final int slot) {
+        long sum = 0;
+        for (int stripe = slot; stripe < slots.length(); stripe += STRIPE_LENGTH) {
+            sum += slots.get(stripe);
+        }
+        return sum;
+    }
+
+    private Latencies latencies(final int histogram) {
+        // the count is derived from the buckets, so that it always matches
+        final long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = sum(histogram + 1 + i);
+            count += buckets[i];
+        }
+        return new Latencies(count, sum(histogram), buckets);
+    }
+}
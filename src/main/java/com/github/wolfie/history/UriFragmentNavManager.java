@@ -1,9 +1,7 @@
 package com.github.wolfie.history;
 
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.Map;
-import java.util.logging.Logger;
 
 import com.github.wolfie.history.HistoryExtension.PopStateEvent;
 import com.vaadin.navigator.Navigator;
@@ -12,19 +10,34 @@ import com.vaadin.navigator.Navigator.UriFragmentManager;
 /**
  * Stores state in URL fragment, e.g. "host:port#!viewname/some_state". This
  * creates compatible urls with Vaadins default {@link UriFragmentManager}.
+ * <p>
+ * A navigation sends a single <code>pushState</code> to the browser. To
+ * change the document title or scroll position along with it, use
+ * {@link HistoryExtension#setTitle(String)} and
+ * {@link HistoryExtension#setScrollTarget(String)}, e.g. in the view's
+ * <code>enter</code> method, rather than
+ * {@link com.vaadin.server.Page#setTitle(String)}, which is a message of its
+ * own.
  */
 public class UriFragmentNavManager extends UriFragmentManager implements HistoryExtension.PopStateListener {
 
     private static final String FRAGMENT_PREFIX = "!";
     private final HistoryExtension historyExtension;
-    private final Map<String, String> emptyStateObject = null;
+    private static final Map<String, String> EMPTY_STATE_OBJECT = null;
     private Navigator navigator;
     private URI lastAddress;
+    /** lastAddress without its fragment, not serialized */
+    private transient String lastAddressPrefix;
+    /**
+     * <code>true</code> while this pushes the URL, so that the extension's
+     * dispatch of it doesn't navigate again
+     */
+    private transient boolean updatingUrl = false;
 
     public UriFragmentNavManager(HistoryExtension historyExtension) {
         super(historyExtension.getUI().getPage());
         this.historyExtension = historyExtension;
-        lastAddress = historyExtension.getUI().getPage().getLocation();
+        setLastAddress(historyExtension.getUI().getPage().getLocation());
         this.historyExtension.addPopStateListener(this);
     }
 
@@ -35,15 +48,30 @@ public class UriFragmentNavManager extends UriFragmentManager implements History
 
     @Override
     protected void setFragment(String fragment) {
+        final HistoryMetrics metrics = historyExtension.getMetrics();
+        if (metrics != HistoryMetrics.NOOP) {
+            // the state is only needed for the metrics
+            metrics.navigation(parseStateFrom(fragment));
+        }
+        if (lastAddressPrefix == null) {
+            lastAddressPrefix = Addresses.withoutFragment(lastAddress);
+        }
+        final String newLocation = Addresses.withFragment(lastAddressPrefix,
+                fragment);
+        updatingUrl = true;
         try {
-            URI newLocation = new URI(lastAddress.getScheme(), lastAddress.getUserInfo(), lastAddress.getHost(),
-                    lastAddress.getPort(), lastAddress.getPath(), lastAddress.getQuery(), fragment);
-            this.historyExtension.pushState(emptyStateObject, newLocation.toString());
-            navigator.getUI().getPage().updateLocation(newLocation.toString(), false);
-        } catch (URISyntaxException e) {
-            Logger.getLogger(getClass().getName()).warning("Could not create url from current: " + lastAddress);
+            this.historyExtension.pushState(EMPTY_STATE_OBJECT, newLocation);
+        } finally {
+            updatingUrl = false;
         }
+        navigator.getUI().getPage().updateLocation(newLocation, false);
+    }
 
+    private void setLastAddress(final URI address) {
+        if (address != lastAddress) {
+            lastAddress = address;
+            lastAddressPrefix = Addresses.withoutFragment(address);
+        }
     }
 
     @Override
@@ -54,13 +82,26 @@ public class UriFragmentNavManager extends UriFragmentManager implements History
 
     @Override
     public void popState(final PopStateEvent event) {
-        lastAddress = event.getAddress();
-        navigator.navigateTo(parseStateFrom(event.getAddress()));
+        setLastAddress(event.getAddress());
+        if (updatingUrl) {
+            // our own push, the navigator is already there
+            return;
+        }
+        final String state = parseStateFrom(event.getAddress());
+        final HistoryMetrics metrics = historyExtension.getMetrics();
+        metrics.navigation(state);
+        final long start = System.nanoTime();
+        navigator.navigateTo(state);
+        metrics.navigationTime(state, System.nanoTime() - start);
     }
 
     protected String parseStateFrom(final URI uri) {
-        if (uri.getFragment() != null && uri.getFragment().startsWith(FRAGMENT_PREFIX)) {
-            return uri.getFragment().substring(FRAGMENT_PREFIX.length());
+        return parseStateFrom(uri.getFragment());
+    }
+
+    private static String parseStateFrom(final String fragment) {
+        if (fragment != null && fragment.startsWith(FRAGMENT_PREFIX)) {
+            return fragment.substring(FRAGMENT_PREFIX.length());
         } else {
             return "";
         }
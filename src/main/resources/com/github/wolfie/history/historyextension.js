@@ -1,8 +1,10 @@
 window.com_github_wolfie_history_HistoryExtension = function () {
     var connector = this;
 
-    // feature detection
-    if (!window.history.pushState || !window.history.replaceState) {
+    // feature detection, unless the server already knows the result from
+    // an earlier UI of the session
+    var supported = !!(window.history.pushState && window.history.replaceState);
+    if (!supported && !connector.getState().historyUnsupported) {
         // error code 0 = unsupported feature
         connector.error(0, "Unsupported Browser",
                 "history.pushState and/or history.replaceState not supported "
@@ -10,9 +12,80 @@ window.com_github_wolfie_history_HistoryExtension = function () {
                 + window.navigator.userAgent);
     }
 
+    // Without the history API, pushed addresses are kept in the fragment,
+    // e.g. "/app/table/1" becomes "#!/app/table/1". Addresses that only
+    // differ from the page by their fragment are used as they are.
+    var useFragment = function () {
+        return !supported && connector.getState().fragmentFallback;
+    };
+    var fragmentStates = {};
+    var expectedHash = null;
+    var anchor = document.createElement("a");
+    var origin = function () {
+        return window.location.protocol + "//" + window.location.host;
+    };
+    var pageAddress = function () {
+        var href = window.location.href;
+        var hash = href.indexOf("#");
+        return hash < 0 ? href : href.substring(0, hash);
+    };
+    var toFragment = function (url) {
+        if (url === undefined || url === null) {
+            return window.location.hash;
+        }
+        anchor.href = url;
+        var href = anchor.href;
+        var page = pageAddress();
+        if (href === page) {
+            return "";
+        } else if (href.indexOf(page + "#") === 0) {
+            return href.substring(page.length);
+        } else if (href.indexOf(origin() + "/") === 0) {
+            return "#!" + href.substring(origin().length);
+        }
+        // another origin
+        return null;
+    };
+    var fragmentAddress = function () {
+        var hash = window.location.hash;
+        if (hash.indexOf("#!/") === 0 && hash.indexOf("#!//") !== 0) {
+            return origin() + hash.substring(2);
+        }
+        return window.location.href;
+    };
+    var setFragment = function (state, url, replace) {
+        var fragment = toFragment(url);
+        if (fragment === null) {
+            throw { name: "SecurityError",
+                    message: "Can't change the origin to " + url };
+        }
+        if (fragment !== window.location.hash) {
+            expectedHash = fragment;
+            if (replace) {
+                window.location.replace(pageAddress() + (fragment || "#"));
+            } else {
+                window.location.hash = fragment;
+            }
+        }
+        fragmentStates[fragmentAddress()] = state;
+    };
+
+    // Sequence numbers of optimistic navigations, shared with the links that
+    // navigate optimistically. Commands that correct a navigation carry its
+    // sequence number, and are ignored if the user has navigated again since.
+    var navigation = window.com_github_wolfie_history_navigation =
+            window.com_github_wolfie_history_navigation
+            || { sequence: new Date().getTime(), latest: 0 };
+    var isStale = function (sequence) {
+        return sequence !== undefined && sequence !== null
+                && sequence < navigation.latest;
+    };
+
     // proxied functions
-    this.back = function () {
-        window.history.back();
+    this.back = function (sequence) {
+        if (!isStale(sequence)) {
+            window.history.back();
+        }
     };
     this.forward = function () {
         window.history.forward();
@@ -21,39 +94,121 @@ window.com_github_wolfie_history_HistoryExtension = function () {
         window.history.go(steps);
     };
 
+    // The document title and a scroll target can come along with a state
+    // change, so that they are applied together, right after it.
+    var decorate = function (title, scrollTarget) {
+        if (title !== undefined && title !== null) {
+            document.title = title;
+        }
+        if (scrollTarget === "") {
+            window.scrollTo(0, 0);
+        } else if (scrollTarget !== undefined && scrollTarget !== null) {
+            var element = document.getElementById(scrollTarget);
+            if (element) {
+                element.scrollIntoView();
+            }
+        }
+    };
+    this.decorate = decorate;
+
     // wrapped functions
-    this.pushState = function (state, url) {
+
+    // The state is whatever the server-side StateCodec produced. It is stored
+    // in history.state and sent back on popstate as-is, never inspected here.
+    this.pushState = function (state, url, sequence, title, scrollTarget) {
+        if (isStale(sequence)) {
+            return;
+        }
         try {
+            if (useFragment()) {
+                setFragment(state, url, false);
+                decorate(title, scrollTarget);
+                return;
+            }
             // Do not pass pushState if already there
             if (window.location.href != window.location.protocol + "//" + window.location.host + url) {
                 // url might be undefined or null, but that's okay.
-                try {
-                    state = JSON.parse(state);
-                } catch(e){}
                 window.history.pushState(state, "", url);
             }
+            decorate(title, scrollTarget);
         } catch (e) {
             // error code 1 = error on method invoke
             connector.error(1, e.name, e.message, window.location.href);
         }
     };
 
-    this.replaceState = function (state, url) {
+    this.replaceState = function (state, url, sequence, title, scrollTarget) {
+        if (isStale(sequence)) {
+            return;
+        }
         try {
+            if (useFragment()) {
+                setFragment(state, url, true);
+                decorate(title, scrollTarget);
+                return;
+            }
             // url might be undefined or null, but that's okay.
-                try {
-                    state = JSON.parse(state);
-                } catch(e){}
             window.history.replaceState(state, "", url);
+            decorate(title, scrollTarget);
         } catch (e) {
             // error code 1 = error on method invoke
             connector.error(1, e.name, e.message, window.location.href);
         }
     };
 
+    // Popstate events are collected for a short while, and only the latest
+    // is sent. The sequence number lets the server drop events that arrive
+    // out of order. It starts from the current time, so that it keeps growing
+    // over page reloads.
+    var popStateSequence = new Date().getTime();
+    var pendingPopState = null;
+    var popStateTimer = null;
+
+    var sendPopState = function () {
+        var popState = pendingPopState;
+        popStateTimer = null;
+        pendingPopState = null;
+        connector.popstate(popState.state, popState.href, popState.sequence);
+    };
+
+    var onPopState = function (state, href) {
+        // corrections to earlier navigations don't apply anymore
+        navigation.latest = ++navigation.sequence;
+        pendingPopState = {
+            state: state,
+            href: href,
+            sequence: ++popStateSequence
+        };
+
+        if (popStateTimer !== null) {
+            window.clearTimeout(popStateTimer);
+            popStateTimer = null;
+        }
+        var delay = connector.getState().popStateCoalesceMillis;
+        if (delay > 0) {
+            popStateTimer = window.setTimeout(sendPopState, delay);
+        } else {
+            sendPopState();
+        }
+    };
+
     if (window['addEventListener'] !== undefined) {
         window.addEventListener("popstate", function (e) {
-            connector.popstate(e.state, window.location.href);
+            onPopState(e.state, window.location.href);
+        });
+        window.addEventListener("hashchange", function () {
+            if (!useFragment()) {
+                return;
+            }
+            var expected = expectedHash;
+            expectedHash = null;
+            if (window.location.hash === expected) {
+                // caused by setFragment, not by the user
+                return;
+            }
+            var href = fragmentAddress();
+            var state = fragmentStates[href];
+            onPopState(state !== undefined ? state : null, href);
         });
     }
 };
\ No newline at end of file
@@ -4,11 +4,39 @@ window.com_github_wolfie_history_PushStateLink = function() {
     var self = this;
     var a = document.createElement("a");
 
+    // see historyextension.js
+    var navigation = window.com_github_wolfie_history_navigation =
+            window.com_github_wolfie_history_navigation
+            || { sequence: new Date().getTime(), latest: 0 };
+
+    // Time of the latest prefetch intent. Sent again only after a while, in
+    // case the staged view has expired on the server.
+    var lastIntent = 0;
+    var intent = function() {
+        var now = new Date().getTime();
+        if (self.getState().prefetch && now - lastIntent > 5000) {
+            lastIntent = now;
+            self.onIntent();
+        }
+    };
+
     a.addEventListener("click", function(e) {
-        window.history.pushState('object', a.innerText, a.href);
+        if (!window.history.pushState) {
+            // without the history API, the link loads the page as usual
+            return;
+        }
+        // The address bar is updated right away. The server is told about
+        // the new entry along with the click, so that it doesn't push it
+        // again, and can correct it if the navigation goes elsewhere.
+        var sequence = ++navigation.sequence;
+        navigation.latest = sequence;
+        window.history.pushState(null, a.innerText, a.href);
         e.preventDefault();
-        self.onClick();
+        lastIntent = 0;
+        self.onClick(a.href, sequence);
     });
+    a.addEventListener("mouseenter", intent);
+    a.addEventListener("touchstart", intent);
 
     this.onStateChange = function() {
         a.innerText = this.getState().text;
@@ -0,0 +1,100 @@
+window.com_github_wolfie_history_PushStateLinkGroup = function() {
+
+    var element = this.getElement();
+    var self = this;
+
+    // see historyextension.js
+    var navigation = window.com_github_wolfie_history_navigation =
+            window.com_github_wolfie_history_navigation
+            || { sequence: new Date().getTime(), latest: 0 };
+
+    // Time of the latest prefetch intent per link, see pushstatelink.js
+    var lastIntents = {};
+
+    var findLink = function(target) {
+        while (target && target !== element) {
+            if (target.tagName === "A" && target.hasAttribute("data-index")) {
+                return target;
+            }
+            target = target.parentNode;
+        }
+        return null;
+    };
+
+    var intent = function(e) {
+        var a = findLink(e.target);
+        if (a && self.getState().prefetch) {
+            var index = a.getAttribute("data-index");
+            var now = new Date().getTime();
+            if (!(now - lastIntents[index] <= 5000)) {
+                lastIntents[index] = now;
+                self.onIntent(parseInt(index, 10),
+                        self.getState().viewIdentifiers[index]);
+            }
+        }
+    };
+
+    element.addEventListener("click", function(e) {
+        var a = findLink(e.target);
+        // without the history API, the link loads the page as usual
+        if (!a || e.button !== 0 || e.ctrlKey || e.metaKey || e.shiftKey
+                || e.altKey || !window.history.pushState) {
+            return;
+        }
+        var index = a.getAttribute("data-index");
+        // see pushstatelink.js
+        var sequence = ++navigation.sequence;
+        navigation.latest = sequence;
+        window.history.pushState(null, a.innerText, a.href);
+        e.preventDefault();
+        delete lastIntents[index];
+        self.onClick(parseInt(index, 10),
+                self.getState().viewIdentifiers[index], a.href, sequence);
+    });
+    element.addEventListener("mouseover", intent);
+    element.addEventListener("touchstart", intent);
+
+    // What the links show now, so that a state change only touches the
+    // links that changed. Any other change of the state, e.g. prefetch,
+    // leaves the links alone.
+    var contextPath = null;
+    var viewIdentifiers = [];
+    var texts = [];
+
+    this.onStateChange = function() {
+        var state = this.getState();
+        var newViewIdentifiers = state.viewIdentifiers;
+        var newTexts = state.texts;
+        var pathChanged = state.contextPath !== contextPath;
+        var links = element.childNodes;
+        var fragment = null;
+        for (var i = 0; i < newViewIdentifiers.length; i++) {
+            var a = links[i];
+            if (!a) {
+                a = document.createElement("a");
+                a.className = "pushstatelink";
+                a.setAttribute("data-index", i);
+                fragment = fragment || document.createDocumentFragment();
+                fragment.appendChild(a);
+            }
+            if (pathChanged || newViewIdentifiers[i] !== viewIdentifiers[i]) {
+                a.href = state.contextPath + "/" + newViewIdentifiers[i];
+                delete lastIntents[i];
+            }
+            if (newTexts[i] !== texts[i]) {
+                a.innerText = newTexts[i];
+            }
+        }
+        while (links.length > newViewIdentifiers.length) {
+            delete lastIntents[links.length - 1];
+            element.removeChild(element.lastChild);
+        }
+        if (fragment) {
+            element.appendChild(fragment);
+        }
+        contextPath = state.contextPath;
+        viewIdentifiers = newViewIdentifiers.slice();
+        texts = newTexts.slice();
+    };
+
+};
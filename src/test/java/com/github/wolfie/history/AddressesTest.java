@@ -0,0 +1,49 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+public class AddressesTest {
+
+    @Test
+    public void normalize() {
+        assertEquals("/app/table/1?a=1#top",
+                Addresses.normalize("http://host:8080/app/table/1?a=1#top"));
+        assertEquals("/app", Addresses.normalize("/app"));
+        assertEquals("/", Addresses.normalize("http://host"));
+        assertEquals("/?a=1", Addresses.normalize("http://host?a=1"));
+    }
+
+    @Test
+    public void sameEntry() {
+        assertTrue(Addresses.sameEntry("/app/table", "/app/table"));
+        assertTrue(Addresses.sameEntry("/caf%C3%A9", "/caf\u00e9"));
+        assertFalse(Addresses.sameEntry("/app/table", "/app/table?a=1"));
+        assertFalse(Addresses.sameEntry("/app/table", null));
+        assertFalse(Addresses.sameEntry("/a%20b", "/a%20c"));
+    }
+
+    @Test
+    public void fallbackFragment() {
+        assertEquals(URI.create("http://host/app/table/1?a=1"),
+                Addresses.withoutFallbackFragment(URI
+                        .create("http://host/app/#!/app/table/1?a=1")));
+        final URI plain = URI.create("http://host/app/#!table/1");
+        assertEquals(plain, Addresses.withoutFallbackFragment(plain));
+    }
+
+    @Test
+    public void fragments() {
+        final URI uri = URI.create("http://host/app/#!old");
+        assertEquals("http://host/app/", Addresses.withoutFragment(uri));
+        assertEquals("http://host/app/#!a%20b",
+                Addresses.withFragment("http://host/app/", "!a b"));
+        assertEquals("http://host/app/", Addresses.withFragment(
+                "http://host/app/", null));
+    }
+}
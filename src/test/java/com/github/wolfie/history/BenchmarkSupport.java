@@ -0,0 +1,153 @@
+package com.github.wolfie.history;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import com.vaadin.navigator.NavigationStateManager;
+import com.vaadin.navigator.Navigator;
+import com.vaadin.navigator.View;
+import com.vaadin.navigator.ViewChangeListener.ViewChangeEvent;
+import com.vaadin.navigator.ViewDisplay;
+import com.vaadin.navigator.ViewProvider;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.shared.communication.ClientMethodInvocation;
+import com.vaadin.ui.ConnectorTracker;
+import com.vaadin.ui.UI;
+
+/**
+ * Stubs for running the add-on without a servlet container or a browser. The
+ * UIs created here are never attached to a session, so everything sent to the
+ * "client" ends up in the connectors' RPC queues, where {@link #flush} picks it
+ * up.
+ * <p>
+ * Shared by the unit tests and the benchmarks of the <code>benchmark</code>
+ * profile, which are compiled together with the tests.
+ */
+@SuppressWarnings("serial")
+final class BenchmarkSupport {
+
+    static final String ORIGIN = "http://localhost:8080";
+    static final String CONTEXT_PATH = "/app";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Creates an unattached UI whose {@link UI#getPage() page} reports the
+     * given location.
+     */
+    static UI newUI(final String location) {
+        final UI ui = new UI() {
+            @Override
+            protected void init(final VaadinRequest request) {
+            }
+        };
+        ui.getPage().updateLocation(location, false);
+        return ui;
+    }
+
+    /**
+     * Creates a navigator that accepts any navigation state, and shows the
+     * same empty view for all of them.
+     */
+    static Navigator newNavigator(final UI ui,
+            final NavigationStateManager stateManager) {
+        final View view = new View() {
+            @Override
+            public void enter(final ViewChangeEvent event) {
+            }
+        };
+        final Navigator navigator = new Navigator(ui, stateManager,
+                new ViewDisplay() {
+                    @Override
+                    public void showView(final View view) {
+                    }
+                });
+        navigator.addProvider(new ViewProvider() {
+            @Override
+            public String getViewName(final String viewAndParameters) {
+                return viewAndParameters;
+            }
+
+            @Override
+            public View getView(final String viewName) {
+                return view;
+            }
+        });
+        return navigator;
+    }
+
+    /**
+     * Creates an unattached UI that has navigated to <code>"table/2"</code>
+     * with one of the add-on's setups, and has nothing queued for the client,
+     * like a UI between two requests.
+     *
+     * @param location the location of the UI's page
+     * @param setup <code>"bare"</code> for Vaadin's own
+     * {@link Navigator.UriFragmentManager} without the add-on,
+     * <code>"extension"</code> for a {@link HistoryExtension} next to it,
+     * <code>"navManager"</code> for a {@link NavManager}, or
+     * <code>"uriFragmentNavManager"</code> for a
+     * {@link UriFragmentNavManager}
+     */
+    static UI newNavigatedUI(final String location, final String setup) {
+        final UI ui = newUI(location);
+        if ("bare".equals(setup)) {
+            newNavigator(ui, new Navigator.UriFragmentManager(ui.getPage()))
+                    .navigateTo("table/2");
+            return ui;
+        }
+
+        final HistoryExtension history = new HistoryExtension();
+        history.extend(ui);
+        if ("extension".equals(setup)) {
+            newNavigator(ui, new Navigator.UriFragmentManager(ui.getPage()))
+                    .navigateTo("table/2");
+            history.pushState(Collections.singletonMap("id", "2"),
+                    CONTEXT_PATH + "/table/2");
+        } else if ("navManager".equals(setup)) {
+            newNavigator(ui, history.createNavigationStateManager(CONTEXT_PATH))
+                    .navigateTo("table/2");
+        } else if ("uriFragmentNavManager".equals(setup)) {
+            newNavigator(ui, new UriFragmentNavManager(history)).navigateTo(
+                    "table/2");
+        } else {
+            throw new IllegalArgumentException("Unknown setup " + setup);
+        }
+        flush(history);
+        return ui;
+    }
+
+    /**
+     * Serializes an object, like a replicated session would be.
+     */
+    static byte[] serialize(final Object object) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16384);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Does what the framework does when writing a response: if the extension
+     * is dirty, lets it send its queued commands, and collects them.
+     * <p>
+     * The framework cleans the connectors after the response, and a
+     * connector that needs to stay dirty marks itself again once the session
+     * is unlocked. The UIs here have no session, so the extension marks
+     * itself right away, and is cleaned before it's asked instead.
+     */
+    static List<ClientMethodInvocation> flush(final HistoryExtension history) {
+        final ConnectorTracker tracker = history.getUI().getConnectorTracker();
+        if (!tracker.isDirty(history)) {
+            return Collections.emptyList();
+        }
+        tracker.markClean(history);
+        history.beforeClientResponse(false);
+        return history.retrievePendingRpcCalls();
+    }
+}
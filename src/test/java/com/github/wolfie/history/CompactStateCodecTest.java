@@ -0,0 +1,94 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+
+public class CompactStateCodecTest {
+
+    private final CompactStateCodec codec = new CompactStateCodec("a", "page");
+
+    @Test
+    public void roundTrip() {
+        final JsonObject state = Json.createObject();
+        state.put("page", 3);
+        state.put("negative", -12);
+        state.put("fraction", 0.5);
+        state.put("text", "ä & ö");
+        state.put("flag", true);
+        state.put("nothing", Json.createNull());
+        final JsonArray array = Json.createArray();
+        array.set(0, "x");
+        array.set(1, Json.createObject());
+        state.put("array", array);
+
+        final JsonValue encoded = codec.encode(state);
+        assertTrue(encoded.asString().startsWith("~"));
+        assertTrue(JsonStates.equal(state, codec.decode(encoded)));
+    }
+
+    @Test
+    public void dictionaryKeys() {
+        final JsonObject state = codec.decode(Json.create("~AQEC"));
+        assertEquals(true, state.getBoolean("a"));
+    }
+
+    @Test
+    public void foreignStatesAreIgnored() {
+        assertNull(codec.decode(Json.create("plain")));
+        assertNull(codec.decode(Json.createObject()));
+        assertNull(codec.decode(Json.create("")));
+    }
+
+    @Test
+    public void malformedStatesAreIgnored() {
+        // not base64url
+        assertNull(codec.decode(Json.create("~A*A")));
+        // an object of one entry that ends there
+        assertNull(codec.decode(Json.create("~AQ")));
+        // a key index beyond the dictionary
+        assertNull(codec.decode(Json.create("~AQUA")));
+        // a key index that reads as a negative number
+        assertNull(codec.decode(Json.create("~Af___________wE")));
+        // a key whose length reads as a negative number
+        assertNull(codec.decode(Json.create("~AQD___________8B")));
+        // a key whose length doesn't fit in an int
+        assertNull(codec.decode(Json.create("~AQCAgICAEA")));
+    }
+
+    @Test
+    public void nestingUpToTheLimitIsDecoded() {
+        assertNotNull(codec.decode(Json.create(nested(
+                CompactStateCodec.MAX_DEPTH))));
+        assertNull(codec.decode(Json.create(nested(
+                CompactStateCodec.MAX_DEPTH + 1))));
+    }
+
+    @Test
+    public void deeplyNestedStatesAreIgnored() {
+        // would exhaust the stack if decoded recursively without a limit
+        assertNull(codec.decode(Json.create(nested(100000))));
+    }
+
+    /**
+     * @return an encoded state of objects nested <code>depth</code> levels
+     * deep, each but the innermost with the key "a"
+     */
+    private static String nested(final int depth) {
+        final StringBuilder sb = new StringBuilder("~");
+        for (int i = 1; i < depth; i++) {
+            // 0x01 0x01 0x06: one entry, key index 1, an object
+            sb.append("AQEG");
+        }
+        // 0x00: no entries
+        return sb.append("AA").toString();
+    }
+}
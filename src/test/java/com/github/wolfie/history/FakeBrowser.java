@@ -0,0 +1,346 @@
+package com.github.wolfie.history;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vaadin.shared.communication.ClientMethodInvocation;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
+
+/**
+ * An in-memory stand-in for a browser tab with a {@link HistoryExtension}. It
+ * keeps a history stack, and speaks the same protocol as
+ * <code>historyextension.js</code> and <code>pushstatelink.js</code>: it
+ * carries out the commands that the extension queues, and answers with
+ * <code>popstate</code> and <code>error</code> calls.
+ * <p>
+ * Everything happens synchronously on the calling thread. A user action, like
+ * {@link #back()} or {@link #click(PushStateLink)}, is followed by
+ * {@link #sync()}, which plays the server's responses until there are no
+ * more, the way round-trips would in a real browser. <code>popstate</code>
+ * events are reported right away, as if the coalescing window were
+ * <code>0</code>.
+ * <p>
+ * The extension's UI needs no session, see {@link BenchmarkSupport}. Not
+ * thread-safe; use one browser per thread.
+ */
+final class FakeBrowser {
+
+    /** as in Chrome, the oldest entries are forgotten beyond this */
+    static final int MAX_LENGTH = 50;
+
+    private static final class Entry {
+        private final JsonValue state;
+        private final String href;
+
+        private Entry(final JsonValue state, final String href) {
+            this.state = state;
+            this.href = href;
+        }
+    }
+
+    private final HistoryExtension history;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private int index = 0;
+
+    /** see historyextension.js */
+    private long popStateSequence = System.currentTimeMillis();
+    private long navigationSequence = popStateSequence;
+    private long latestNavigation = 0;
+
+    private String title = "";
+    private String scrollTarget;
+
+    private int commands = 0;
+
+    /**
+     * Opens a page.
+     *
+     * @param history the extension of the page's UI
+     * @param href the absolute address of the page, as the UI's page reports
+     * it
+     */
+    FakeBrowser(final HistoryExtension history, final String href) {
+        this.history = history;
+        entries.add(new Entry(null, href));
+    }
+
+    /**
+     * Reports that the browser doesn't support the history API, as the
+     * connector's feature detection does.
+     */
+    void reportUnsupported() {
+        final JsonArray arguments = Json.createArray();
+        arguments.set(0, 0);
+        arguments.set(1, "Unsupported Browser");
+        arguments.set(2, "history.pushState and/or history.replaceState "
+                + "not supported by the user's browser: FakeBrowser");
+        arguments.set(3, getLocation());
+        history.onError(arguments);
+        sync();
+    }
+
+    /**
+     * The user presses the back button.
+     *
+     * @return <code>false</code> if there was no entry to go back to
+     */
+    boolean back() {
+        return go(-1);
+    }
+
+    /**
+     * The user presses the forward button.
+     *
+     * @return <code>false</code> if there was no entry to go forward to
+     */
+    boolean forward() {
+        return go(1);
+    }
+
+    /**
+     * The user jumps in the history menu. Does nothing if there is no entry
+     * that far.
+     *
+     * @param steps how many entries to move, backwards if negative
+     * @return <code>true</code> if the browser moved and made a round trip to
+     *         the server, <code>false</code> if there was no entry that far
+     */
+    boolean go(final int steps) {
+        if (!move(steps)) {
+            return false;
+        }
+        sync();
+        return true;
+    }
+
+    /**
+     * The user clicks a link.
+     *
+     * @param link the link, in the same UI as the extension
+     */
+    void click(final PushStateLink link) {
+        final String href = resolve(link.getState().getHref());
+        final long sequence = ++navigationSequence;
+        latestNavigation = sequence;
+        push(null, href);
+
+        final JsonArray arguments = Json.createArray();
+        arguments.set(0, href);
+        arguments.set(1, sequence);
+        link.onClick(arguments);
+        sync();
+    }
+
+    /**
+     * The user clicks a link of a group.
+     *
+     * @param group the group, in the same UI as the extension
+     * @param index the index of the link in the group
+     */
+    void click(final PushStateLinkGroup group, final int index) {
+        click(group, index, group.getViewIdentifier(index));
+    }
+
+    /**
+     * The user clicks a link of a group as the browser rendered it, which
+     * may differ from the link on the server, e.g. if the server has removed
+     * links since.
+     *
+     * @param group the group, in the same UI as the extension
+     * @param index the index of the link in the group
+     * @param viewIdentifier the view identifier of the rendered link
+     */
+    void click(final PushStateLinkGroup group, final int index,
+            final String viewIdentifier) {
+        final String href = resolve(group.getState().getContextPath() + "/"
+                + viewIdentifier);
+        final long sequence = ++navigationSequence;
+        latestNavigation = sequence;
+        push(null, href);
+
+        final JsonArray arguments = Json.createArray();
+        arguments.set(0, index);
+        arguments.set(1, viewIdentifier);
+        arguments.set(2, href);
+        arguments.set(3, sequence);
+        group.onClick(arguments);
+        sync();
+    }
+
+    /**
+     * Carries out the commands that the server has queued, and the ones those
+     * cause in turn, until there are no more.
+     *
+     * @return the amount of commands carried out
+     */
+    int sync() {
+        int count = 0;
+        List<ClientMethodInvocation> invocations = BenchmarkSupport
+                .flush(history);
+        while (!invocations.isEmpty()) {
+            for (final ClientMethodInvocation invocation : invocations) {
+                if ("call".equals(invocation.getMethodName())) {
+                    final Object[] parameters = invocation.getParameters();
+                    execute((String) parameters[0], (JsonArray) parameters[1]);
+                    count++;
+                }
+            }
+            invocations = BenchmarkSupport.flush(history);
+        }
+        commands += count;
+        return count;
+    }
+
+    /**
+     * @return the address of the current entry
+     */
+    String getLocation() {
+        return entries.get(index).href;
+    }
+
+    /**
+     * @return the state of the current entry, or <code>null</code> if none
+     */
+    JsonValue getState() {
+        return entries.get(index).state;
+    }
+
+    /**
+     * @return the document title
+     * @see HistoryExtension#setTitle(String)
+     */
+    String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return the id of the element that the page was last scrolled to,
+     * <code>""</code> for the top, or <code>null</code> if it hasn't been
+     * scrolled
+     * @see HistoryExtension#setScrollTarget(String)
+     */
+    String getScrollTarget() {
+        return scrollTarget;
+    }
+
+    /**
+     * @return the number of entries in the history
+     */
+    int getLength() {
+        return entries.size();
+    }
+
+    /**
+     * @return the index of the current entry
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the total amount of commands carried out for the server
+     */
+    int getCommandCount() {
+        return commands;
+    }
+
+    private void execute(final String name, final JsonArray arguments) {
+        if ("pushState".equals(name) || "replaceState".equals(name)) {
+            if (isStale(arguments, 2)) {
+                return;
+            }
+            final JsonValue state = arguments.get(0);
+            final String url = getString(arguments, 1);
+            if ("pushState".equals(name)) {
+                // historyextension.js doesn't push the address it's at
+                if (url == null || !resolve(url).equals(getLocation())) {
+                    push(state, url != null ? resolve(url) : getLocation());
+                }
+            } else {
+                entries.set(index, new Entry(state, url != null ? resolve(url)
+                        : getLocation()));
+            }
+            decorate(arguments, 3);
+        } else if ("back".equals(name)) {
+            // a correction of an optimistic navigation that was overtaken
+            if (!isStale(arguments, 0)) {
+                move(-1);
+            }
+        } else if ("decorate".equals(name)) {
+            decorate(arguments, 0);
+        } else if ("forward".equals(name)) {
+            move(1);
+        } else if ("go".equals(name)) {
+            move((int) arguments.getNumber(0));
+        } else {
+            throw new IllegalStateException("Unknown command " + name);
+        }
+    }
+
+    private void decorate(final JsonArray arguments, final int titleIndex) {
+        final String newTitle = getString(arguments, titleIndex);
+        if (newTitle != null) {
+            title = newTitle;
+        }
+        final String newScrollTarget = getString(arguments, titleIndex + 1);
+        if (newScrollTarget != null) {
+            scrollTarget = newScrollTarget;
+        }
+    }
+
+    private void push(final JsonValue state, final String href) {
+        while (entries.size() > index + 1) {
+            entries.remove(entries.size() - 1);
+        }
+        entries.add(new Entry(state, href));
+        if (entries.size() > MAX_LENGTH) {
+            entries.remove(0);
+        } else {
+            index++;
+        }
+    }
+
+    /**
+     * Moves in the history and fires <code>popstate</code>, like
+     * <code>history.go</code> does.
+     */
+    private boolean move(final int steps) {
+        final int target = index + steps;
+        if (steps == 0 || target < 0 || target >= entries.size()) {
+            return false;
+        }
+        index = target;
+        latestNavigation = ++navigationSequence;
+
+        final Entry entry = entries.get(index);
+        final JsonArray arguments = Json.createArray();
+        arguments.set(0, entry.state != null ? entry.state : Json.createNull());
+        arguments.set(1, entry.href);
+        arguments.set(2, ++popStateSequence);
+        history.onPopState(arguments);
+        return true;
+    }
+
+    private boolean isStale(final JsonArray arguments, final int sequenceIndex) {
+        return arguments.length() > sequenceIndex
+                && arguments.get(sequenceIndex).getType() == JsonType.NUMBER
+                && arguments.getNumber(sequenceIndex) < latestNavigation;
+    }
+
+    private String resolve(final String url) {
+        return URI.create(getLocation()).resolve(url).toString();
+    }
+
+    private static String getString(final JsonArray arguments, final int i) {
+        if (arguments.length() <= i
+                || arguments.get(i).getType() != JsonType.STRING) {
+            return null;
+        }
+        return arguments.getString(i);
+    }
+}
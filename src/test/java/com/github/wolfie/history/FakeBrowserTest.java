@@ -0,0 +1,214 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.wolfie.history.HistoryExtension.PopStateEvent;
+import com.github.wolfie.history.HistoryExtension.PopStateListener;
+import com.vaadin.navigator.Navigator;
+import com.vaadin.navigator.ViewChangeListener;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.VerticalLayout;
+
+/**
+ * Drives {@link HistoryExtension} and {@link NavManager} through a
+ * {@link FakeBrowser}, and checks the browser's history and the navigations
+ * that the server sees.
+ */
+public class FakeBrowserTest {
+
+    private static final String START = BenchmarkSupport.ORIGIN + "/table/0";
+
+    private HistoryExtension history;
+    private Navigator navigator;
+    private FakeBrowser browser;
+    private PushStateLink link1;
+    private PushStateLink link2;
+    private PushStateLinkGroup group;
+
+    /** the addresses of the browser's popstate events, in order */
+    private final List<String> pops = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        final UI ui = BenchmarkSupport.newUI(START);
+        history = new HistoryExtension();
+        history.extend(ui);
+        history.setPopStateCoalesceWindow(0);
+        // links use the root context when there is no servlet
+        navigator = BenchmarkSupport.newNavigator(ui,
+                history.createNavigationStateManager(""));
+        history.addPopStateListener(new PopStateListener() {
+            @Override
+            public void popState(final PopStateEvent event) {
+                if (history.isPopStateInProgress()) {
+                    pops.add(event.getAddress().toString());
+                }
+            }
+        });
+
+        link1 = new PushStateLink("One", "table/1");
+        link2 = new PushStateLink("Two", "table/2");
+        group = new PushStateLinkGroup();
+        group.addLink("One", "table/1");
+        group.addLink("Two", "table/2");
+        final VerticalLayout layout = new VerticalLayout(link1, link2, group);
+        ui.setContent(layout);
+
+        browser = new FakeBrowser(history, START);
+        navigator.navigateTo(navigator.getState());
+        browser.sync();
+    }
+
+    @Test
+    public void initialNavigationDoesNotPush() {
+        assertEquals(1, browser.getLength());
+        assertEquals(START, browser.getLocation());
+    }
+
+    @Test
+    public void clickPushesOneEntry() {
+        browser.click(link1);
+
+        assertEquals(2, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/1",
+                browser.getLocation());
+        assertEquals("table/1", navigator.getState());
+        assertEquals(0, browser.getCommandCount());
+    }
+
+    @Test
+    public void serverNavigationPushes() {
+        navigator.navigateTo("table/5");
+        browser.sync();
+
+        assertEquals(2, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/5",
+                browser.getLocation());
+    }
+
+    @Test
+    public void backAndForwardNavigate() {
+        browser.click(link1);
+        browser.click(link2);
+
+        browser.back();
+        assertEquals(1, browser.getIndex());
+        assertEquals("table/1", navigator.getState());
+
+        browser.back();
+        assertEquals(0, browser.getIndex());
+        assertEquals("table/0", navigator.getState());
+
+        browser.forward();
+        assertEquals(1, browser.getIndex());
+        assertEquals("table/1", navigator.getState());
+
+        assertEquals(3, browser.getLength());
+        assertEquals(3, pops.size());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/1", pops.get(2));
+        // going back and forth pushes nothing
+        assertEquals(0, browser.getCommandCount());
+    }
+
+    @Test
+    public void clickAfterBackDropsForwardEntries() {
+        browser.click(link1);
+        browser.click(link2);
+        browser.back();
+        browser.back();
+
+        browser.click(link2);
+
+        assertEquals(2, browser.getLength());
+        assertEquals(1, browser.getIndex());
+        assertEquals("table/2", navigator.getState());
+    }
+
+    @Test
+    public void groupClickNavigates() {
+        browser.click(group, 1);
+
+        assertEquals(2, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/2",
+                browser.getLocation());
+        assertEquals("table/2", navigator.getState());
+    }
+
+    @Test
+    public void clickOnRemovedGroupLinkIsTakenBack() {
+        group.removeLink(0);
+
+        // the browser still shows the removed link first
+        browser.click(group, 0, "table/1");
+
+        assertEquals(0, browser.getIndex());
+        assertEquals(START, browser.getLocation());
+        assertEquals("table/0", navigator.getState());
+    }
+
+    @Test
+    public void cancelledOptimisticNavigationIsTakenBack() {
+        history.setOptimisticNavigation(true);
+        navigator.addViewChangeListener(new ViewChangeListener() {
+            @Override
+            public boolean beforeViewChange(final ViewChangeEvent event) {
+                return !"table/2".equals(event.getViewName());
+            }
+
+            @Override
+            public void afterViewChange(final ViewChangeEvent event) {
+            }
+        });
+
+        browser.click(link2);
+
+        // the navigator reverts to where it was, and the entry follows
+        assertEquals(START, browser.getLocation());
+        assertEquals("table/0", navigator.getState());
+        assertEquals(0, pops.size());
+    }
+
+    @Test
+    public void redirectedOptimisticNavigationIsReplaced() {
+        history.setOptimisticNavigation(true);
+        navigator.addViewChangeListener(new ViewChangeListener() {
+            @Override
+            public boolean beforeViewChange(final ViewChangeEvent event) {
+                if ("table/2".equals(event.getViewName())) {
+                    navigator.navigateTo("table/3");
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public void afterViewChange(final ViewChangeEvent event) {
+            }
+        });
+
+        browser.click(link2);
+
+        assertEquals(2, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/3",
+                browser.getLocation());
+        assertEquals("table/3", navigator.getState());
+    }
+
+    @Test
+    public void optimisticClickThatNavigatesIsConfirmed() {
+        history.setOptimisticNavigation(true);
+
+        browser.click(link1);
+
+        assertEquals(2, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/1",
+                browser.getLocation());
+        assertEquals(0, browser.getCommandCount());
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.wolfie.history.HistoryExtension.ErrorEvent;
+import com.github.wolfie.history.HistoryExtension.ErrorListener;
+import com.github.wolfie.history.HistoryExtension.ThrottleEdge;
+import com.vaadin.ui.UI;
+
+import elemental.json.Json;
+import elemental.json.JsonObject;
+
+/**
+ * Tests {@link HistoryExtension} against a {@link FakeBrowser}.
+ */
+public class HistoryExtensionTest {
+
+    private static final String START = BenchmarkSupport.ORIGIN + "/table/0";
+
+    private HistoryExtension history;
+    private FakeBrowser browser;
+
+    /** the types of the errors reported to the listeners, in order */
+    private final List<ErrorEvent.Type> errors = new ArrayList<ErrorEvent.Type>();
+
+    @Before
+    public void setUp() {
+        final UI ui = BenchmarkSupport.newUI(START);
+        history = new HistoryExtension();
+        history.extend(ui);
+        history.setPopStateCoalesceWindow(0);
+        history.addErrorListener(new ErrorListener() {
+            @Override
+            public void onError(final ErrorEvent event) {
+                errors.add(event.getType());
+                // otherwise an unsupported browser without the fallback fails
+                event.cancel();
+            }
+        });
+        browser = new FakeBrowser(history, START);
+    }
+
+    @Test
+    public void unsupportedBrowserFallsBackToFragment() {
+        browser.reportUnsupported();
+
+        assertTrue(history.isHistoryUnsupported());
+        assertEquals(1, errors.size());
+        assertEquals(ErrorEvent.Type.UNSUPPORTED, errors.get(0));
+
+        // the client emulates the history, so calls still reach it
+        history.pushState((JsonObject) null, "/table/1");
+        browser.sync();
+        assertEquals(2, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/1",
+                browser.getLocation());
+    }
+
+    @Test
+    public void unsupportedBrowserWithoutFallbackIgnoresCalls() {
+        history.setFragmentFallback(false);
+        browser.reportUnsupported();
+
+        assertTrue(history.isHistoryUnsupported());
+        history.pushState((JsonObject) null, "/table/1");
+        assertEquals(0, browser.sync());
+        assertEquals(1, browser.getLength());
+    }
+
+    @Test
+    public void supportedBrowserIsNotMarked() {
+        history.pushState((JsonObject) null, "/table/1");
+        browser.sync();
+
+        assertFalse(history.isHistoryUnsupported());
+        assertEquals(0, errors.size());
+    }
+
+    @Test
+    public void sameStateIsNotSentAgain() {
+        history.replaceState(state(1, 2), "/table/1");
+        history.replaceState(state(1, 2), "/table/1");
+
+        assertEquals(1, browser.sync());
+    }
+
+    @Test
+    public void changedStateWithSameHashIsSent() {
+        history.replaceState(state(1, 2), "/table/1");
+        assertEquals(1, browser.sync());
+
+        // swapped values used to share the hash
+        history.replaceState(state(2, 1), "/table/1");
+        assertEquals(1, browser.sync());
+        assertEquals(2.0, ((JsonObject) browser.getState()).getNumber("x"),
+                0.0);
+    }
+
+    @Test
+    public void throttledTailIsSentWhenItsWindowIsOver()
+            throws InterruptedException {
+        browser.sync();
+        history.setReplaceStateThrottle(20, ThrottleEdge.TRAILING);
+        history.throttledReplaceState(state(1, 0), null);
+        history.throttledReplaceState(state(2, 0), null);
+        assertEquals(0, browser.sync());
+
+        // nothing else dirties the extension until the window is over
+        Thread.sleep(40);
+        assertEquals(1, browser.sync());
+        assertEquals(2.0, ((JsonObject) browser.getState()).getNumber("x"),
+                0.0);
+    }
+
+    @Test
+    public void throttledStateIsHeldWithinItsWindow() {
+        history.setReplaceStateThrottle(60000, ThrottleEdge.LEADING);
+        history.throttledReplaceState(state(1, 0), null);
+        history.throttledReplaceState(state(2, 0), null);
+        assertEquals(1, browser.sync());
+
+        history.flushThrottledReplaceState();
+        assertEquals(1, browser.sync());
+        assertEquals(2.0, ((JsonObject) browser.getState()).getNumber("x"),
+                0.0);
+    }
+
+    @Test
+    public void linkAddressMatchesDespitePercentEncoding() {
+        history.navigateOptimistically(BenchmarkSupport.ORIGIN
+                + "/caf%C3%A9", -1, new Runnable() {
+            @Override
+            public void run() {
+                history.pushState((JsonObject) null, "/caf\u00e9");
+            }
+        });
+
+        assertEquals(0, browser.sync());
+    }
+
+    private static JsonObject state(final double x, final double y) {
+        final JsonObject state = Json.createObject();
+        state.put("x", x);
+        state.put("y", y);
+        return state;
+    }
+}
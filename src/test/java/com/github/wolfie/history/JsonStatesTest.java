@@ -0,0 +1,90 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+
+public class JsonStatesTest {
+
+    private static JsonObject xy(final double x, final double y) {
+        final JsonObject state = Json.createObject();
+        state.put("x", x);
+        state.put("y", y);
+        return state;
+    }
+
+    @Test
+    public void keyOrderDoesNotMatter() {
+        final JsonObject yx = Json.createObject();
+        yx.put("y", 2);
+        yx.put("x", 1);
+
+        assertEquals(JsonStates.hash(xy(1, 2)), JsonStates.hash(yx));
+        assertTrue(JsonStates.equal(xy(1, 2), yx));
+    }
+
+    @Test
+    public void swappedValuesHashDifferently() {
+        assertFalse(JsonStates.hash(xy(1, 2)) == JsonStates.hash(xy(2, 1)));
+        assertFalse(JsonStates.equal(xy(1, 2), xy(2, 1)));
+    }
+
+    @Test
+    public void smallNumbersHashDifferently() {
+        for (int i = 0; i < 100; i++) {
+            assertFalse(JsonStates.hash(xy(i, 0)) == JsonStates.hash(xy(
+                    i + 1, 0)));
+        }
+    }
+
+    @Test
+    public void nestedValuesAreCompared() {
+        final JsonObject a = Json.createObject();
+        a.put("filter", xy(1, 2));
+        final JsonObject b = Json.createObject();
+        b.put("filter", xy(1, 3));
+
+        assertFalse(JsonStates.equal(a, b));
+        b.put("filter", xy(1, 2));
+        assertTrue(JsonStates.equal(a, b));
+    }
+
+    @Test
+    public void nullState() {
+        assertEquals(0, JsonStates.hash(null));
+        assertTrue(JsonStates.equal(null, null));
+        assertFalse(JsonStates.equal(null, Json.createObject()));
+        assertFalse(JsonStates.equal(xy(1, 2), Json.createObject()));
+    }
+
+    @Test
+    public void jsonSizeIsTheSizeOfTheJson() {
+        final JsonObject state = xy(-3, 0.25);
+        state.put("big", 12345678);
+        state.put("text", "caf\u00e9 \"quoted\"\n\u20ac\ud83d\ude00");
+        state.put("flag", false);
+        state.put("nothing", Json.createNull());
+        final JsonArray array = Json.createArray();
+        array.set(0, true);
+        array.set(1, Json.createObject());
+        array.set(2, Json.createArray());
+        state.put("array", array);
+
+        assertEquals(utf8Size(state), JsonStates.jsonSize(state));
+        assertEquals(utf8Size(Json.create("~AQEC")),
+                JsonStates.jsonSize(Json.create("~AQEC")));
+    }
+
+    private static int utf8Size(final JsonValue value) {
+        return value.toJson().getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.navigator.Navigator;
+import com.vaadin.navigator.View;
+import com.vaadin.navigator.ViewChangeListener.ViewChangeEvent;
+import com.vaadin.navigator.ViewDisplay;
+import com.vaadin.navigator.ViewProvider;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.VerticalLayout;
+
+/**
+ * Tests {@link NavManager} against a {@link FakeBrowser}.
+ */
+public class NavManagerTest {
+
+    private static final String START = BenchmarkSupport.ORIGIN
+            + "/table/0?sort=name";
+
+    private NavManager navManager;
+    private Navigator navigator;
+    private FakeBrowser browser;
+    private PushStateLink link;
+
+    /** how many times a view has been entered */
+    private int enters = 0;
+
+    @Before
+    public void setUp() {
+        final UI ui = BenchmarkSupport.newUI(START);
+        final HistoryExtension history = new HistoryExtension();
+        history.extend(ui);
+        history.setPopStateCoalesceWindow(0);
+        navManager = history.createNavigationStateManager("");
+
+        final View view = new View() {
+            @Override
+            public void enter(final ViewChangeEvent event) {
+                enters++;
+            }
+        };
+        navigator = new Navigator(ui, navManager, new ViewDisplay() {
+            @Override
+            public void showView(final View view) {
+            }
+        });
+        navigator.addProvider(new ViewProvider() {
+            @Override
+            public String getViewName(final String viewAndParameters) {
+                return viewAndParameters;
+            }
+
+            @Override
+            public View getView(final String viewName) {
+                return view;
+            }
+        });
+
+        link = new PushStateLink("One", "table/1");
+        ui.setContent(new VerticalLayout(link));
+
+        browser = new FakeBrowser(history, START);
+        navigator.navigateTo(navigator.getState());
+        browser.sync();
+        enters = 0;
+    }
+
+    @Test
+    public void readsParametersOfThePage() {
+        assertEquals("table/0", navManager.getState());
+        assertEquals("name", navManager.getParameter("sort"));
+    }
+
+    @Test
+    public void replacedParameterDoesNotEnterView() {
+        navManager.setParameter("page", "3", false);
+        browser.sync();
+
+        assertEquals(0, enters);
+        assertEquals(1, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/0?sort=name&page=3",
+                browser.getLocation());
+    }
+
+    @Test
+    public void pushedParameterDoesNotEnterView() {
+        navManager.setParameterRange("price", "10", "50", true);
+        browser.sync();
+
+        assertEquals(0, enters);
+        assertEquals(2, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/0?sort=name&price=10~50",
+                browser.getLocation());
+    }
+
+    @Test
+    public void backRestoresEarlierParameters() {
+        navManager.setParameter("page", "3", true);
+        browser.sync();
+
+        browser.back();
+
+        assertEquals("table/0", navManager.getState());
+        assertEquals(null, navManager.getParameter("page"));
+        assertEquals("name", navManager.getParameter("sort"));
+    }
+
+    @Test
+    public void navigationKeepsParameters() {
+        navigator.navigateTo("table/1");
+        browser.sync();
+
+        assertEquals(1, enters);
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/1?sort=name",
+                browser.getLocation());
+    }
+
+    @Test
+    public void clickKeepsParametersInTheSameEntry() {
+        browser.click(link);
+
+        assertEquals(1, enters);
+        assertEquals(2, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + "/table/1?sort=name",
+                browser.getLocation());
+    }
+}
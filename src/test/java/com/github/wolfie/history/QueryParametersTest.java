@@ -0,0 +1,79 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class QueryParametersTest {
+
+    @Test
+    public void parsedQueryIsWrittenBackAsItWas() {
+        final String query = "sort=name&q=a%20b&flag";
+        assertEquals(query, QueryParameters.parse(query).toString());
+    }
+
+    @Test
+    public void valuesAreDecoded() {
+        final QueryParameters parameters = QueryParameters
+                .parse("q=a+b%26c&empty=");
+        assertEquals("a b&c", parameters.get("q", null));
+        assertEquals("", parameters.get("empty", null));
+        assertEquals("default", parameters.get("missing", "default"));
+    }
+
+    @Test
+    public void setOnlyEncodesTheChangedParameter() {
+        final QueryParameters parameters = QueryParameters
+                .parse("q=a%20b&page=1");
+        assertTrue(parameters.set("page", "2"));
+        assertFalse(parameters.set("page", "2"));
+        assertEquals("q=a%20b&page=2", parameters.toString());
+    }
+
+    @Test
+    public void listSeparatorInValueIsEncoded() {
+        final QueryParameters parameters = new QueryParameters();
+        parameters.setList("tags", Arrays.asList("red", "a,b"));
+        assertEquals("tags=red,a%2Cb", parameters.toString());
+        assertEquals(Arrays.asList("red", "a,b"), parameters.getList("tags"));
+    }
+
+    @Test
+    public void repeatedParameterIsReadAsList() {
+        final QueryParameters parameters = QueryParameters
+                .parse("tag=red&tag=blue");
+        assertEquals(Arrays.asList("red", "blue"), parameters.getList("tag"));
+        assertEquals("tag=red,blue", parameters.toString());
+    }
+
+    @Test
+    public void ranges() {
+        final QueryParameters parameters = new QueryParameters();
+        parameters.setRange("price", "10", null);
+        assertEquals("price=10~", parameters.toString());
+        assertArrayEquals(new String[] { "10", null },
+                parameters.getRange("price"));
+        assertNull(QueryParameters.parse("price=10").getRange("price"));
+    }
+
+    @Test
+    public void removeAndEmpty() {
+        final QueryParameters parameters = QueryParameters.parse("a=1");
+        assertFalse(parameters.remove("b"));
+        assertTrue(parameters.remove("a"));
+        assertTrue(parameters.isEmpty());
+        assertEquals("", parameters.toString());
+        assertTrue(QueryParameters.parse(null).isEmpty());
+    }
+
+    @Test
+    public void malformedEscapeIsKept() {
+        assertEquals("100%", QueryParameters.parse("p=100%").get("p", null));
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RouteTableTest {
+
+    private RouteTable routes;
+
+    @Before
+    public void setUp() {
+        routes = new RouteTable();
+        routes.addRoute("about");
+        routes.addRoute("table");
+        routes.addRoute("table/new");
+        routes.addRoute("table/{id:int}");
+        routes.addRoute("table/{name}");
+        routes.addRoute("user/{name}/posts/{postId:long}");
+    }
+
+    @Test
+    public void literalRouteMatches() {
+        final RouteMatch match = routes.resolve("/about/");
+        assertEquals("about", match.getPattern());
+        assertEquals("about", match.getViewName());
+    }
+
+    @Test
+    public void literalWinsOverParameters() {
+        assertEquals("table/new", routes.resolve("table/new").getPattern());
+    }
+
+    @Test
+    public void typedParameterWinsOverString() {
+        final RouteMatch match = routes.resolve("table/42");
+        assertEquals("table/{id:int}", match.getPattern());
+        assertEquals("table", match.getViewName());
+        assertEquals(42, match.getInt("id", -1));
+        assertEquals("42", match.getString("id", null));
+    }
+
+    @Test
+    public void tooLargeIntFallsBackToString() {
+        final RouteMatch match = routes.resolve("table/99999999999");
+        assertEquals("table/{name}", match.getPattern());
+        assertEquals("99999999999", match.getString("name", null));
+        assertEquals(-1, match.getInt("name", -1));
+    }
+
+    @Test
+    public void parametersAreReadInPlace() {
+        final RouteMatch match = routes.resolve("user/ann/posts/-7");
+        assertEquals("user", match.getViewName());
+        assertEquals("ann", match.getString("name", null));
+        assertEquals(-7L, match.getLong("postId", 0));
+        assertFalse(match.has("id"));
+    }
+
+    @Test
+    public void resolveSkipsPrefix() {
+        final String path = "/app/table/5";
+        assertEquals(5, routes.resolve(path, "/app".length())
+                .getInt("id", -1));
+    }
+
+    @Test
+    public void unknownPathsDoNotMatch() {
+        assertNull(routes.resolve("nowhere"));
+        assertNull(routes.resolve("table/1/2"));
+        assertNull(routes.resolve("user/ann/posts/many"));
+    }
+
+    @Test
+    public void manyLiteralsAreFound() {
+        for (int i = 0; i < 100; i++) {
+            routes.addRoute("page" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("page" + i, routes.resolve("page" + i).getPattern());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void samePatternTwiceIsRejected() {
+        routes.addRoute("table/{other:int}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTypeIsRejected() {
+        routes.addRoute("table/{id:uuid}/x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptySegmentIsRejected() {
+        routes.addRoute("table//x");
+    }
+}
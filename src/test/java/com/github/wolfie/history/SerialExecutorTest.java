@@ -0,0 +1,134 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+public class SerialExecutorTest {
+
+    /** Queues tasks until they're run by hand, and rejects when told to */
+    private static class ManualExecutor implements Executor {
+        private final List<Runnable> queued = new ArrayList<Runnable>();
+        /** how many of the next tasks to reject */
+        private int rejections = 0;
+
+        @Override
+        public void execute(final Runnable command) {
+            if (rejections > 0) {
+                rejections--;
+                throw new RejectedExecutionException();
+            }
+            queued.add(command);
+        }
+
+        private void runNext() {
+            queued.remove(0).run();
+        }
+    }
+
+    private static Runnable add(final List<String> log, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                log.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void runsOneAtATimeInOrder() {
+        final ManualExecutor executor = new ManualExecutor();
+        final SerialExecutor serial = new SerialExecutor(executor);
+        final List<String> log = new ArrayList<String>();
+
+        serial.execute(add(log, "a"));
+        serial.execute(add(log, "b"));
+        assertEquals(1, executor.queued.size());
+
+        executor.runNext();
+        assertEquals(1, executor.queued.size());
+        executor.runNext();
+        assertEquals(0, executor.queued.size());
+        assertEquals("[a, b]", log.toString());
+    }
+
+    @Test
+    public void keepsWorkingAfterARejection() {
+        final ManualExecutor executor = new ManualExecutor();
+        final SerialExecutor serial = new SerialExecutor(executor);
+        final List<String> log = new ArrayList<String>();
+
+        executor.rejections = Integer.MAX_VALUE;
+        try {
+            serial.execute(add(log, "a"));
+            fail("The rejection should reach the submitter");
+        } catch (final RejectedExecutionException e) {
+            // expected
+        }
+
+        executor.rejections = 0;
+        serial.execute(add(log, "b"));
+        executor.runNext();
+        assertEquals("[b]", log.toString());
+    }
+
+    @Test
+    public void rejectedQueuedTaskIsDropped() {
+        final ManualExecutor executor = new ManualExecutor();
+        final SerialExecutor serial = new SerialExecutor(executor);
+        final List<String> log = new ArrayList<String>();
+
+        serial.execute(add(log, "a"));
+        serial.execute(add(log, "b"));
+        executor.rejections = Integer.MAX_VALUE;
+        executor.runNext();
+
+        executor.rejections = 0;
+        serial.execute(add(log, "c"));
+        executor.runNext();
+        assertEquals("[a, c]", log.toString());
+    }
+
+    @Test
+    public void taskAfterARejectedOneIsScheduled() {
+        final ManualExecutor executor = new ManualExecutor();
+        final SerialExecutor serial = new SerialExecutor(executor);
+        final List<String> log = new ArrayList<String>();
+
+        serial.execute(add(log, "a"));
+        serial.execute(add(log, "b"));
+        serial.execute(add(log, "c"));
+        executor.rejections = 1;
+        executor.runNext();
+
+        assertEquals(1, executor.queued.size());
+        executor.runNext();
+        assertEquals("[a, c]", log.toString());
+    }
+
+    @Test
+    public void rejectedTasksDoNotStallTheQueue() {
+        final ManualExecutor executor = new ManualExecutor();
+        final SerialExecutor serial = new SerialExecutor(executor);
+        final List<String> log = new ArrayList<String>();
+
+        serial.execute(add(log, "a"));
+        serial.execute(add(log, "b"));
+        serial.execute(add(log, "c"));
+        executor.rejections = 2;
+        executor.runNext();
+
+        // the next submitter gets its own task run, and nothing else
+        serial.execute(add(log, "d"));
+        assertEquals(1, executor.queued.size());
+        executor.runNext();
+        assertEquals(0, executor.queued.size());
+        assertEquals("[a, d]", log.toString());
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Keeps the bytes that the add-on adds to a serialized UI in check, so that
+ * replicated sessions don't grow unnoticed, e.g. because a cache or a parsed
+ * address ends up in the session.
+ *
+ * @see SessionFootprintBenchmark
+ */
+public class SessionFootprintTest {
+
+    private static final String LOCATION = BenchmarkSupport.ORIGIN
+            + BenchmarkSupport.CONTEXT_PATH + "/table/1";
+
+    /**
+     * The most bytes a setup may add to a UI. Mostly class descriptors, which
+     * a session only contains once however many UIs it has.
+     */
+    private static final int MAX_ADDED_BYTES = 12 * 1024;
+
+    private static int bareSize;
+
+    @BeforeClass
+    public static void serializeBareUI() throws IOException {
+        bareSize = BenchmarkSupport.serialize(BenchmarkSupport.newNavigatedUI(
+                LOCATION, "bare")).length;
+    }
+
+    @Test
+    public void extension() throws IOException {
+        assertFootprint("extension");
+    }
+
+    @Test
+    public void navManager() throws IOException {
+        assertFootprint("navManager");
+    }
+
+    @Test
+    public void uriFragmentNavManager() throws IOException {
+        assertFootprint("uriFragmentNavManager");
+    }
+
+    private static void assertFootprint(final String setup) throws IOException {
+        final int added = BenchmarkSupport.serialize(BenchmarkSupport
+                .newNavigatedUI(LOCATION, setup)).length - bareSize;
+        assertTrue(setup + " adds " + added + " bytes to a serialized UI, "
+                + "at most " + MAX_ADDED_BYTES + " expected",
+                added <= MAX_ADDED_BYTES);
+    }
+}
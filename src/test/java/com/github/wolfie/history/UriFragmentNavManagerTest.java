@@ -0,0 +1,67 @@
+package com.github.wolfie.history;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.navigator.Navigator;
+import com.vaadin.ui.UI;
+
+/**
+ * Tests {@link UriFragmentNavManager} against a {@link FakeBrowser}.
+ */
+public class UriFragmentNavManagerTest {
+
+    private static final String START = BenchmarkSupport.ORIGIN
+            + BenchmarkSupport.CONTEXT_PATH + "/#!table/0";
+
+    private HistoryExtension history;
+    private Navigator navigator;
+    private FakeBrowser browser;
+    private StripedHistoryMetrics metrics;
+
+    @Before
+    public void setUp() {
+        final UI ui = BenchmarkSupport.newUI(START);
+        history = new HistoryExtension();
+        history.extend(ui);
+        history.setPopStateCoalesceWindow(0);
+        navigator = BenchmarkSupport.newNavigator(ui,
+                new UriFragmentNavManager(history));
+
+        browser = new FakeBrowser(history, START);
+        navigator.navigateTo(navigator.getState());
+        browser.sync();
+
+        metrics = new StripedHistoryMetrics();
+        history.setMetrics(metrics);
+    }
+
+    @Test
+    public void navigationIsCountedOnce() {
+        navigator.navigateTo("table/1");
+        browser.sync();
+
+        assertEquals(2, browser.getLength());
+        assertEquals(BenchmarkSupport.ORIGIN + BenchmarkSupport.CONTEXT_PATH
+                + "/#!table/1", browser.getLocation());
+        assertEquals("table/1", navigator.getState());
+        assertEquals(1, metrics.getNavigationCount());
+        // nothing came from a popstate
+        assertEquals(0, metrics.getNavigationTimes().getCount());
+    }
+
+    @Test
+    public void backNavigates() {
+        navigator.navigateTo("table/1");
+        browser.sync();
+
+        browser.back();
+
+        assertEquals(START, browser.getLocation());
+        assertEquals("table/0", navigator.getState());
+        assertEquals(2, metrics.getNavigationCount());
+        assertEquals(1, metrics.getNavigationTimes().getCount());
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.wolfie.history.navigatordemo;
 
 import com.github.wolfie.history.HistoryExtension;
+import com.github.wolfie.history.RouteTable;
+import com.github.wolfie.history.RouteViewProvider;
 import com.github.wolfie.history.tabledemo.AboutView;
 import com.github.wolfie.history.tabledemo.MyPojo;
 import com.github.wolfie.history.tabledemo.TableView;
@@ -22,7 +24,17 @@ import org.vaadin.addonhelpers.AbstractTest;
 @Title("Navigator Integration Example")
 public class NavigatorUI extends AbstractTest implements ViewDisplay {
 
+    private static final RouteTable ROUTES = new RouteTable();
+
+    static {
+        ROUTES.addRoute("");
+        ROUTES.addRoute("table");
+        ROUTES.addRoute("table/{id:int}");
+        ROUTES.addRoute("about");
+    }
+
     private Navigator navigator;
+    private RouteViewProvider viewProvider;
     private HistoryExtension history;
     private TabSheet tabSheet;
 
@@ -46,17 +58,7 @@ public class NavigatorUI extends AbstractTest implements ViewDisplay {
         tabSheet.setSelectedTab((Component) view);
 
         if (view == tableView) {
-            final String[] args = navigator.getState().split("/");
-            if (args.length > 1) {
-                final String id = args[1];
-                try {
-                    tableView.select(Integer.parseInt(id));
-                } catch (final NumberFormatException e) {
-                    e.printStackTrace();
-                }
-            } else {
-                tableView.select(-1);
-            }
+            tableView.select(viewProvider.getCurrentMatch().getInt("id", -1));
         }
     }
 
@@ -81,9 +83,11 @@ public class NavigatorUI extends AbstractTest implements ViewDisplay {
         final NavigationStateManager pushStateManager = history
                 .createNavigationStateManager(contextPath + "/" + getClass().getName());
         navigator = new Navigator(this, pushStateManager, this);
-        navigator.addView("", tableView);
-        navigator.addView("table", tableView);
-        navigator.addView("about", aboutView);
+        viewProvider = new RouteViewProvider(ROUTES);
+        viewProvider.addView("", tableView);
+        viewProvider.addView("table", tableView);
+        viewProvider.addView("about", aboutView);
+        navigator.addProvider(viewProvider);
 
         tabSheet = new TabSheet();
         tabSheet.addTab(tableView, "Table View");
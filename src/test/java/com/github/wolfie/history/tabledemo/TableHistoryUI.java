@@ -6,6 +6,7 @@ import elemental.json.JsonException;
 import elemental.json.JsonObject;
 
 import com.github.wolfie.history.HistoryExtension;
+import com.github.wolfie.history.HistoryState;
 import com.github.wolfie.history.HistoryExtension.PopStateEvent;
 import com.github.wolfie.history.HistoryExtension.PopStateListener;
 import com.github.wolfie.history.tabledemo.TableView.TableSelectionListener;
@@ -43,10 +44,11 @@ public class TableHistoryUI extends AbstractTest {
         @Override
         public void popState(final PopStateEvent event) {
             /*
-             * We could've used event.getStateAsMap as well, to get an
-             * Map<String, String> instead.
+             * We could've used event.getStateAsJson or event.getStateAsMap as
+             * well, to get the raw JsonObject or a Map<String, String>
+             * instead.
              */
-            applySerializedState(event.getStateAsJson());
+            applySerializedState(event.getState());
         }
     };
 
@@ -107,7 +109,7 @@ public class TableHistoryUI extends AbstractTest {
 
     /**
      * A flag that prevents event feedback loops when modifying internal state
-     * via {@link #applySerializedState(JsonObject)}
+     * via {@link #applySerializedState(HistoryState)}
      */
     private boolean applyingSerializedState = false;
 
@@ -196,16 +198,16 @@ public class TableHistoryUI extends AbstractTest {
      *            the state object that contains the information needed to
      *            modify the application's state
      */
-    private void applySerializedState(final JsonObject state) {
-        if (state == null) {
+    private void applySerializedState(final HistoryState state) {
+        if (state.isEmpty()) {
             return;
         }
 
         try {
             applyingSerializedState = true;
 
-            final int view = (int)state.getNumber(VIEW_KEY);
-            final int pojoId = (int)state.getNumber(POJO_ID_KEY);
+            final int view = state.getInt(VIEW_KEY, TABLE_VIEW_STATE_VALUE);
+            final int pojoId = state.getInt(POJO_ID_KEY, -1);
 
             switch (view) {
             case TABLE_VIEW_STATE_VALUE:
@@ -221,8 +223,6 @@ public class TableHistoryUI extends AbstractTest {
 
             tableView.select(pojoId);
 
-        } catch (final JsonException e) {
-            throw new RuntimeException(e);
         } finally {
             applyingSerializedState = false;
         }